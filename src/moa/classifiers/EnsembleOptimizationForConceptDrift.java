@@ -1,33 +1,57 @@
 package moa.classifiers;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import com.github.javacliparser.FileOption;
 import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
 import com.github.javacliparser.ListOption;
+import com.github.javacliparser.MultiChoiceOption;
 import com.github.javacliparser.Option;
 import com.yahoo.labs.samoa.instances.Instance;
-import com.yahoo.labs.samoa.instances.Instances;
 import com.yahoo.labs.samoa.instances.InstancesHeader;
 
 import moa.classifiers.bayes.NaiveBayes;
 import moa.classifiers.core.driftdetection.ChangeDetector;
+import moa.classifiers.eocd.ConfigurationArchive;
+import moa.classifiers.eocd.EnsembleCheckpoint;
 import moa.classifiers.eocd.EnsembleMemberConfiguration;
+import moa.classifiers.eocd.ExponentiatedGradientOptimizer;
 import moa.classifiers.eocd.GeneticAlgorithm;
+import moa.classifiers.eocd.InstanceWindow;
+import moa.classifiers.eocd.IslandGeneticAlgorithm;
+import moa.classifiers.eocd.LearnerFactory;
 import moa.classifiers.eocd.MemberClassifier;
+import moa.classifiers.eocd.MemberShards;
+import moa.classifiers.eocd.OptimizationResult;
+import moa.classifiers.eocd.OptimizationScheduler;
+import moa.classifiers.eocd.OptimizationStats;
 import moa.classifiers.eocd.Problem;
-import moa.classifiers.eocd.Solve;
+import moa.classifiers.eocd.VoteCombiner;
+import moa.classifiers.eocd.WeightOptimizer;
 import moa.classifiers.eocd.StopCondition;
 import moa.classifiers.functions.Perceptron;
 import moa.classifiers.lazy.kNN;
 import moa.classifiers.trees.HoeffdingTree;
-import moa.core.DoubleVector;
 import moa.core.Measurement;
 import moa.core.ObjectRepository;
 import moa.core.Utils;
@@ -38,6 +62,8 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 
 	private static final long serialVersionUID = 1L;
 
+	private static final int MAX_EVALUATIONS = 2000;
+
 	public FloatOption betaOption = new FloatOption("beta", 'b', "Factor to punish mistakes by.", 0.95, 0.0, 1.0);
 
 	public IntOption initialMembersSize = new IntOption("initialEnsembleSize", 's', "Initial quantity of ensemble members.", 10, 1, Integer.MAX_VALUE);
@@ -67,6 +93,43 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 
 	public FlagOption useThread = new FlagOption("useThread", 'T', "Use of atribute selection for member classifiers.");
 	
+	public IntOption evaluationThreads = new IntOption("evaluationThreads", 'E', "Number of threads evaluating the solves of a generation of the Optimization Algorithm, ignored with numIslands > 1 (one thread per island).", 1, 1, Integer.MAX_VALUE);
+
+	public FloatOption optimizationTime = new FloatOption("optimizationTime", 't', "Maximum seconds of each run of the Optimization Algorithm, fractions allowed.", 120.0, 0.0, Double.MAX_VALUE);
+
+	public IntOption memberThreads = new IntOption("memberThreads", 'M', "Number of threads predicting and training the members, 1 for the stream thread only.", 1, 1, Integer.MAX_VALUE);
+
+	public IntOption memberBatchSize = new IntOption("memberBatchSize", 'k', "Number of instances the members are trained on at once when memberThreads > 1.", 1, 1, Integer.MAX_VALUE);
+
+	public IntOption archiveSize = new IntOption("archiveSize", 'c', "Maximum number of sampled configurations kept to seed the Optimization Algorithm.", 30, 1, Integer.MAX_VALUE);
+
+	public MultiChoiceOption archiveEviction = new MultiChoiceOption("archiveEviction", 'x', "Sampled configuration evicted when the archive is full.",
+			new String[] { "Oldest", "LeastFit" }, new String[] { "The oldest configuration.", "The configuration with the lowest weighted member accuracy." }, 0);
+
+	public IntOption numIslands = new IntOption("numIslands", 'I', "Number of sub-populations of the Optimization Algorithm evolving on their own threads, 1 for a single population; each island evaluates its solves on its own thread, evaluationThreads is ignored.", 1, 1, Integer.MAX_VALUE);
+
+	public IntOption migrationInterval = new IntOption("migrationInterval", 'g', "Number of generations between migrations of the best solves of the islands.", 5, 1, Integer.MAX_VALUE);
+
+	public FloatOption racingDelta = new FloatOption("racingDelta", 'D', "Probability of wrongly rejecting a solve when racing its evaluation over chunks of the window (split over the checks after each chunk), 0 scores every solve on the whole window.", 0.0, 0.0, 1.0);
+
+	public MultiChoiceOption weightOptimizer = new MultiChoiceOption("weightOptimizer", 'W', "Algorithm searching the member weights.",
+			new String[] { "GeneticAlgorithm", "ExponentiatedGradient" },
+			new String[] { "Genetic algorithm, also selects the members (see numIslands).", "Deterministic exponentiated gradient on the squared loss of the window votes, prunes low weights." }, 0);
+
+	public FileOption optimizationLogOption = new FileOption("optimizationLog", 'L', "File to append the statistics of each applied optimization to, one JSON object per line.", null, "jsonl", true);
+
+	public IntOption learnerPoolSize = new IntOption("learnerPoolSize", 'P', "Number of retired learners of each base learner kept reset for reuse by new members.", 10, 0, Integer.MAX_VALUE);
+
+	public FloatOption optimizationLoad = new FloatOption("optimizationLoad", 'u', "Fraction of the time the stream takes to replace the buffer given to each optimization, its budget sized from the measured arrival rate and cost per evaluation, a trigger not affording 100 evaluations waits at most the buffer size before running with 100, 0 for the fixed budget (epochs, optimizationTime).", 0.0, 0.0, 1.0);
+
+	public IntOption coalesceInstances = new IntOption("coalesceInstances", 'n', "Number of instances an optimization trigger waits for further triggers merged into the same optimization.", 0, 0, Integer.MAX_VALUE);
+
+	public FileOption checkpointFileOption = new FileOption("checkpointFile", 'C', "File the state of the ensemble is checkpointed to and restored from.", null, "eocd", true);
+
+	public IntOption checkpointFrequency = new IntOption("checkpointFrequency", 'F', "Number of instances between checkpoints written in the background, 0 for none.", 0, 0, Integer.MAX_VALUE);
+
+	public FlagOption restoreCheckpointOption = new FlagOption("restoreCheckpoint", 'S', "Restore the ensemble from the checkpoint file when it exists.");
+
 	public IntOption limitOption = new IntOption("limit", 'w', "The maximum number of instances to storeo cost evaluation", 1000, 1, Integer.MAX_VALUE);
 
 	public ClassOption driftDetectionMethodOption = new ClassOption("driftDetectionMethod", 'd', "Drift detection method to use.", ChangeDetector.class,
@@ -90,12 +153,27 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 	int numAttributes = -1; // -1 for unknown
 
 	public MemberClassifier[] classifiers;
-	public Instances buffer;
+	public InstanceWindow buffer;
 
 	private Classifier[] possibleMembers;
-	private Thread optimizationThread;
+	private LearnerFactory[] factories;
+	// replaced members, their learners are released once no pending training or running optimization can use them
+	private final List<MemberClassifier> retired = new ArrayList<>();
 	public GeneticAlgorithm optimizationAlgorithm;
-	public List<EnsembleMemberConfiguration> configurations = new ArrayList<>();
+
+	// the optimization runs on a background executor and publishes its result, applied by the stream thread
+	private transient ExecutorService optimizationExecutor;
+	private transient Future<?> optimization;
+	private transient WeightOptimizer runningOptimizer;
+	private int numOptimizations; // results of older optimizations are discarded
+	private long numRejectedSolves;
+	private int numAppliedOptimizations;
+	private int optimizationTrigger; // index in OptimizationStats.TRIGGERS of the next optimization
+	private transient OptimizationStats lastOptimization;
+	private transient Consumer<OptimizationStats> optimizationListener;
+	private final AtomicReference<OptimizationResult> optimizationResult = new AtomicReference<>();
+	private OptimizationScheduler scheduler;
+	public ConfigurationArchive configurations = new ConfigurationArchive(30, ConfigurationArchive.EVICT_OLDEST);
 
 	private enum DriftLevel {
 		INCONTROL, OUTCONTROL, WARNING
@@ -103,6 +181,25 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 
 	private DriftLevel driftState = DriftLevel.INCONTROL;
 
+	// votes of each member for the last instance, shared by testing, drift detection, weight update and training
+	private double[][] memberVotes;
+	private boolean[] voted;
+	private double[] votedValues;
+	private boolean votesValid;
+	private transient VoteCombiner combinedVote;
+
+	// null when the members run on the stream thread
+	private transient MemberShards shards;
+
+	// checkpoints are written by a background thread, one at a time
+	private transient ExecutorService checkpointExecutor;
+	private transient Future<?> checkpointWrite;
+
+	private transient ExecutorService logExecutor;
+	private int instancesSinceCheckpoint;
+	private volatile int numCheckpoints;
+	private boolean restoredCheckpoint; // the next model context keeps the restored state
+
 	@Override
 	public String getPurposeString() {
 		return "Optimization Choice Ensemble For Data Streams With Concept Drift.";
@@ -113,15 +210,27 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 		super.prepareForUseImpl(monitor, repository);
 
 		driftDetectionMethod = ((ChangeDetector) getPreparedClassOption(this.driftDetectionMethodOption)).copy();
+		configurations = new ConfigurationArchive(archiveSize.getValue(), archiveEviction.getChosenIndex());
+		scheduler = newScheduler();
 		classifiers = new MemberClassifier[maxMembersSize.getValue()];
 
 		initBaseLearners(monitor, repository);
 		initMembers();
+
+		File checkpoint = checkpointFileOption.getFile();
+		if (restoreCheckpointOption.isSet() && checkpoint != null && checkpoint.exists()) {
+			try {
+				restoreCheckpoint(checkpoint);
+			} catch (IOException e) {
+				throw new RuntimeException("EOCD checkpoint restore failed: " + checkpoint, e);
+			}
+		}
 	}
 
 	private void initBaseLearners(TaskMonitor monitor, ObjectRepository repository) {
 		Option[] learnerOptions = this.learnerListOption.getList();
 		possibleMembers = new Classifier[learnerOptions.length];
+		factories = new LearnerFactory[learnerOptions.length];
 		for (int i = 0; i < learnerOptions.length; i++) {
 			possibleMembers[i] = (AbstractClassifier) ((ClassOption) learnerOptions[i]).materializeObject(monitor, repository);
 			if (monitor.taskShouldAbort()) {
@@ -131,10 +240,12 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 			if (monitor.taskShouldAbort()) {
 				return;
 			}
+			factories[i] = new LearnerFactory(possibleMembers[i], learnerPoolSize.getValue());
 		}
 	}
 
 	private void initMembers() {
+		votesValid = false;
 		for (int i = 0; i < this.classifiers.length; i++) {
 			if (classifiers[i] == null) {
 				classifiers[i] = createMember();
@@ -150,32 +261,52 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 
 	protected MemberClassifier createMember() {
 		int index = this.classifierRandom.nextInt(possibleMembers.length);
-		AbstractClassifier classifier = (AbstractClassifier) possibleMembers[index].copy();
-		classifier.resetLearning();
+		AbstractClassifier classifier = (AbstractClassifier) factories[index].create();
 		MemberClassifier member = new MemberClassifier(classifier, index, classifierRandom, numAttributes);
 		return member;
 	}
 
+	private void retire(MemberClassifier member) {
+		if (member != null) {
+			retired.add(member);
+		}
+	}
+
+	private void releaseRetired() {
+		if (retired.isEmpty() || (shards != null && shards.hasPending())) {
+			return;
+		}
+		for (Iterator<MemberClassifier> it = retired.iterator(); it.hasNext();) {
+			MemberClassifier member = it.next();
+			if (!member.isFrozen()) { // an optimization or a checkpoint may still read the learner
+				factories[member.hyperSet].release(member.learner());
+				it.remove();
+			}
+		}
+	}
+
 	@Override
 	public void setModelContext(InstancesHeader ih) {
 		super.setModelContext(ih);
+		if (restoredCheckpoint) {
+			restoredCheckpoint = false;
+			return;
+		}
 		if (useAttributeSelection.isSet()) {
 			numAttributes = ih.numAttributes();
+			if (shards != null) {
+				shards.clear();
+			}
+			for (MemberClassifier member : classifiers) {
+				retire(member);
+			}
 			classifiers = new MemberClassifier[maxMembersSize.getValue()];
 			initMembers();
 		}
-		try {
-			buffer = new Instances(ih, 0);
-			buffer.setClassIndex(ih.classIndex());
-		} catch (Exception e) {
-			System.err.println("Error: no Model Context available.");
-			e.printStackTrace();
-			System.exit(1);
-		}
+		buffer = new InstanceWindow(limitOption.getValue());
 	}
 
 	@Override
-	@SuppressWarnings("deprecation")
 	public void resetLearningImpl() {
 		buffer = null;
 		numAttributes = -1;
@@ -185,25 +316,49 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 		if (trainingHasStarted()) {
 			initMembers();
 		}
-		if (optimizationThread != null) {
-			optimizationThread.stop();
+		cancelOptimization();
+		if (optimizationExecutor != null) {
+			optimizationExecutor.shutdownNow();
+			optimizationExecutor = null;
 		}
-		optimizationThread = null;
+		numRejectedSolves = 0;
+		numAppliedOptimizations = 0;
+		lastOptimization = null;
+		instancesSinceCheckpoint = 0;
+		restoredCheckpoint = false;
+		scheduler = newScheduler();
+		if (shards != null) {
+			shards.shutdown();
+			shards = null;
+		}
+		votesValid = false;
 	}
 
 	int countInstances = 0;
 
 	@Override
 	public void trainOnInstanceImpl(Instance inst) {
+		long start = System.nanoTime();
+		scheduler.arrived(start);
+		applyOptimization();
 
-		if (useOptimizationFrequency.isSet() && (countInstances++ % optimizationFrequency.getValue() == 0)) {
-			driftDetected();
+		if (useOptimizationFrequency.isSet() && (countInstances++ % optimizationFrequency.getValue() == 0) && useOptimization.isSet()) {
+			scheduler.trigger(1);
 		}
 
 		// drift detection
 		int y = Utils.maxIndex(getVotesForInstance(inst));
 		int real = (int) inst.classValue();
 		driftObserver(y, real);
+		boolean optimizedOnStream = false; // the stream waited for the optimization
+		int trigger = useOptimization.isSet() ? scheduler.due(isRunningOptimization(), optimizationHorizon(), useThread.isSet()) : -1;
+		if (trigger != -1) {
+			optimizationTrigger = trigger;
+			int numStarted = scheduler.numScheduled();
+			driftDetected();
+			optimizedOnStream = !useThread.isSet() && scheduler.numScheduled() > numStarted;
+		}
+		prepareVotes(inst); // an optimization may have replaced members
 
 		// update weights
 		double instWeight = inst.weight();
@@ -213,12 +368,14 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 		for (int i = 0; i < classifiers.length; i++) {
 			MemberClassifier member = classifiers[i];
 			if (member.isActive) {
-				if (!member.correctlyClassifies(inst)) {
+				if (Utils.maxIndex(memberVotes(i, inst)) != real) {
 					member.weight = member.weight * beta * instWeight;
 					doupdate = true;
 					if (member.weight < 0.001) {
+						retire(member);
 						classifiers[i] = createMember();
 						classifiers[i].isHidden = true;
+						voted[i] = false;
 					}
 				}
 				if (member.isActive) {
@@ -228,26 +385,61 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 		}
 
 		// normalize weights
+		MemberShards shards = shards();
+		MemberClassifier[] trained = shards == null ? null : new MemberClassifier[classifiers.length];
+		double[][] trainVotes = shards == null ? null : new double[classifiers.length][];
 		for (int i = 0; i < classifiers.length; i++) {
 			MemberClassifier member = classifiers[i];
 			if (doupdate && member.isActive) {
 				member.weight = member.weight / totalWeight;
 			}
 			if (member.isActive || member.isHidden) {
-				member.train(inst);
+				if (shards == null) {
+					member.train(inst, memberVotes(i, inst));
+				} else {
+					trained[i] = member;
+					trainVotes[i] = memberVotes(i, inst);
+				}
 			}
 		}
+		if (shards != null) {
+			shards.train(inst, trained, trainVotes);
+		}
+		votesValid = false;
 
 		// update buffer
 		if (buffer == null) {
-			buffer = new Instances(inst.dataset());
+			buffer = new InstanceWindow(limitOption.getValue());
 		}
 		buffer.add(inst);
-		if (buffer.numInstances() >= limitOption.getValue()) {
-			buffer.delete(0);
+
+		File checkpoint = checkpointFileOption.getFile();
+		if (checkpoint != null && checkpointFrequency.getValue() > 0 && ++instancesSinceCheckpoint >= checkpointFrequency.getValue()
+				&& writeCheckpoint(checkpoint) != null) {
+			instancesSinceCheckpoint = 0;
+		}
+		releaseRetired();
+
+		if (optimizedOnStream) {
+			scheduler.skipArrival();
+		} else {
+			scheduler.processed(System.nanoTime() - start);
 		}
 	}
 
+	private OptimizationScheduler newScheduler() {
+		return new OptimizationScheduler(optimizationLoad.getValue(), coalesceInstances.getValue(), optimizationTime.getValue(), MAX_EVALUATIONS);
+	}
+
+	// instances until the optimized weights are outdated
+	private int optimizationHorizon() {
+		int horizon = limitOption.getValue();
+		if (useOptimizationFrequency.isSet()) {
+			horizon = Math.min(horizon, optimizationFrequency.getValue());
+		}
+		return horizon;
+	}
+
 	protected void driftObserver(int y, int real) {
 		DriftLevel newLevel = DriftLevel.INCONTROL;
 
@@ -260,7 +452,9 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 		if (newLevel != driftState) {
 			switch (newLevel) {
 			case OUTCONTROL:
-				driftDetected();
+				if (useOptimization.isSet()) {
+					scheduler.trigger(0);
+				}
 				driftState = DriftLevel.OUTCONTROL;
 				break;
 			case WARNING:
@@ -279,7 +473,7 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 	}
 
 	protected boolean isRunningOptimization() {
-		return optimizationThread != null;
+		return optimization != null && !optimization.isDone();
 	}
 
 	protected void driftDetected() {
@@ -303,46 +497,14 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 			configurations.add(new EnsembleMemberConfiguration(classifiers));
 		}
 
-		GeneticAlgorithm optimizer = makeOptimizer();
+		WeightOptimizer optimizer = makeOptimizer();
 		if (resetBufferOnOptimization.isSet()) {
 			buffer = null;
 		}
 
-		List<Integer> active = new ArrayList<>();
-		for (int i = 0; i < classifiers.length; i++) {
-			if (classifiers[i].isActive) {
-				active.add(i);
-			}
-		}
-		System.out.println("Active Classifiers Before:" + active);
-
-		optimizer.execute();
-		Solve bestSolve = (Solve) optimizer.bestSolve();
-		double[] weights = optimizer.problem.getWeights(bestSolve);
-
-		active.clear();
-
-		int numHidden = 0;
-		for (int i = 0; i < classifiers.length; i++) {
-			classifiers[i].weight = weights[i];
-			classifiers[i].isActive = weights[i] > 0;
-			classifiers[i].isHidden = false;
-			if (!classifiers[i].isActive && numHidden < hiddenMemberSize.getValue()) {
-				classifiers[i] = createMember();
-				classifiers[i].isHidden = true;
-				numHidden += 1;
-			}
-			if (classifiers[i].isActive) {
-				active.add(i);
-			}
-		}
-		System.out.println("Active Classifiers After:" + active);
-
-		if (sampleConfigurationAfterOptimization.isSet()) {
-			configurations.add(new EnsembleMemberConfiguration(classifiers));
-		}
-
-		optimizationThread = null;
+		scheduler.started();
+		optimization(optimizer, ++numOptimizations).run();
+		applyOptimization();
 
 		// System.out.println("Drift: State After Optimization");
 		// printSummary();
@@ -350,11 +512,22 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 
 	}
 	
-	private GeneticAlgorithm makeOptimizer() {
-		Problem problem = new Problem(classifiers, buffer, configurations);
-		StopCondition stopCondition = new StopCondition(0, 2000, 0, epochs.getValue(), epochs.getValue(), 0, 120);
+	// the problem freezes the learners of the members, their votes are computed by the optimization
+	private WeightOptimizer makeOptimizer() {
+		Problem problem = new Problem(classifiers, buffer == null ? null : buffer.snapshot(), configurations);
+		StopCondition stopCondition = new StopCondition(0, scheduler.evaluationBudget(), 0, epochs.getValue(), epochs.getValue(), 0.0, scheduler.timeBudget());
 		Random rand = new Random(super.randomSeed);
-		GeneticAlgorithm optimizer = new GeneticAlgorithm(problem, stopCondition, rand);
+		problem.setRacing(racingDelta.getValue(), new Random(super.randomSeed));
+		WeightOptimizer optimizer;
+		if (weightOptimizer.getChosenIndex() == 1) {
+			optimizer = new ExponentiatedGradientOptimizer(problem, stopCondition);
+		} else if (numIslands.getValue() > 1) {
+			optimizer = new IslandGeneticAlgorithm(problem, stopCondition, rand, numIslands.getValue(), migrationInterval.getValue());
+		} else {
+			GeneticAlgorithm algorithm = new GeneticAlgorithm(problem, stopCondition, rand);
+			algorithm.setNumThreads(evaluationThreads.getValue());
+			optimizer = algorithm;
+		}
 		return optimizer;
 	}
 
@@ -377,69 +550,253 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 		}
 
 		
-		GeneticAlgorithm optimizer = makeOptimizer();
+		WeightOptimizer optimizer = makeOptimizer();
 		if (resetBufferOnOptimization.isSet()) {
 			buffer = null;
 		}
 
-		List<Integer> active = new ArrayList<>();
-		for (int i = 0; i < classifiers.length; i++) {
-			if (classifiers[i].isActive) {
-				active.add(i);
+		scheduler.started();
+		if (useThread.isSet()) {
+			runningOptimizer = optimizer;
+			optimization = optimizationExecutor().submit(optimization(optimizer, ++numOptimizations));
+		} else {
+			optimization(optimizer, ++numOptimizations).run();
+			applyOptimization();
+		}
+	}
+
+	private Runnable optimization(WeightOptimizer optimizer, int id) {
+		MemberClassifier[] members = optimizer.problem().classifiers;
+		int trigger = optimizationTrigger;
+		double instancesSeen = trainingWeightSeenByModel;
+		return () -> {
+			long start = System.nanoTime();
+			if (optimizer.isCancelled() || !optimizer.problem().computeVotes()) {
+				return;
 			}
+			double votesMillis = (System.nanoTime() - start) / 1e6;
+			optimizer.execute();
+			double wallMillis = (System.nanoTime() - start) / 1e6;
+			double[] weights = optimizer.bestWeights();
+			if (weights != null && !optimizer.isCancelled()) {
+				OptimizationStats stats = new OptimizationStats(id, trigger, instancesSeen, optimizer, votesMillis, wallMillis);
+				optimizationResult.set(new OptimizationResult(id, members, weights, stats));
+			}
+		};
+	}
+
+	// a failure of the background optimization is thrown on the stream thread
+	private void checkOptimization() {
+		if (optimization == null || !optimization.isDone() || optimization.isCancelled()) {
+			return;
 		}
+		Future<?> done = optimization;
+		optimization = null;
+		runningOptimizer = null;
+		try {
+			done.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new RuntimeException("EOCD optimization failed", e.getCause());
+		}
+	}
 
-		optimizationThread = new Thread() {
-			public void run() {
-				try {
-					optimizer.execute();
-
-					Solve bestSolve = (Solve) optimizer.bestSolve();
-					double[] weights = optimizer.problem.getWeights(bestSolve);
-
-					List<Integer> active = new ArrayList<>();
-
-					int numHidden = 0;
-					for (int i = 0; i < classifiers.length; i++) {
-						classifiers[i].weight = weights[i];
-						classifiers[i].isActive = weights[i] > 0;
-						classifiers[i].isHidden = false;
-						if (!classifiers[i].isActive && numHidden < hiddenMemberSize.getValue()) {
-							classifiers[i] = createMember();
-							classifiers[i].isHidden = true;
-							numHidden += 1;
-						}
-						if (classifiers[i].isActive) {
-							active.add(i);
-						}
-					}
+	// runs on the stream thread, members replaced during the optimization keep their state
+	private void applyOptimization() {
+		checkOptimization();
+		OptimizationResult result = optimizationResult.getAndSet(null);
+		if (result == null || result.id != numOptimizations) {
+			return;
+		}
+		numRejectedSolves += result.stats.numRejected;
+		int numHidden = 0;
+		for (int i = 0; i < classifiers.length && i < result.size(); i++) {
+			if (classifiers[i] != result.member(i)) {
+				continue;
+			}
+			classifiers[i].weight = result.weight(i);
+			classifiers[i].isActive = result.weight(i) > 0;
+			classifiers[i].isHidden = false;
+			if (!classifiers[i].isActive && numHidden < hiddenMemberSize.getValue()) {
+				retire(classifiers[i]);
+				classifiers[i] = createMember();
+				classifiers[i].isHidden = true;
+				numHidden += 1;
+			}
+		}
+		votesValid = false;
 
-					if (sampleConfigurationAfterOptimization.isSet()) {
-						configurations.add(new EnsembleMemberConfiguration(classifiers));
-					}
+		if (sampleConfigurationAfterOptimization.isSet()) {
+			configurations.add(new EnsembleMemberConfiguration(classifiers));
+		}
+		reportOptimization(result.stats);
+	}
 
-				} catch (Error e) {
-					System.err.println("Optmizaition error!!!");
+	private void reportOptimization(OptimizationStats stats) {
+		int numActive = 0;
+		int numHidden = 0;
+		for (MemberClassifier member : classifiers) {
+			numActive += member.isActive ? 1 : 0;
+			numHidden += member.isHidden ? 1 : 0;
+		}
+		stats.applied(numActive, numHidden);
+		scheduler.optimized(stats.evaluations, stats.wallMillis - stats.votesMillis);
+		lastOptimization = stats;
+		numAppliedOptimizations += 1;
+		if (optimizationListener != null) {
+			optimizationListener.accept(stats);
+		}
+		File log = optimizationLogOption.getFile();
+		if (log != null) {
+			String line = stats.toJson() + System.lineSeparator();
+			logExecutor().execute(() -> {
+				try (Writer writer = new OutputStreamWriter(new FileOutputStream(log, true), StandardCharsets.UTF_8)) {
+					writer.write(line);
+				} catch (IOException e) {
+					System.err.println("Optimization log error: " + e.getMessage());
 				}
+			});
+		}
+	}
 
-				optimizationThread = null;
+	// the optimization log is appended by a background thread, in the order of the optimizations
+	private ExecutorService logExecutor() {
+		if (logExecutor == null) {
+			logExecutor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "eocd-log");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return logExecutor;
+	}
 
-				// System.out.println("Drift: State After Optimization");
-				// printSummary();
-				// System.out.println("-------------------------------------");
+	// called on the stream thread with the statistics of each applied optimization
+	public void setOptimizationListener(Consumer<OptimizationStats> listener) {
+		optimizationListener = listener;
+	}
 
-			}
-		};
-		optimizationThread.start();
-		
-		if(!useThread.isSet()) {
+	public OptimizationStats lastOptimization() {
+		return lastOptimization;
+	}
+
+	private void cancelOptimization() {
+		if (runningOptimizer != null) {
+			runningOptimizer.cancel();
+			runningOptimizer.problem().discard(); // unless its votes are being computed
+		}
+		if (optimization != null) {
+			optimization.cancel(false);
+		}
+		runningOptimizer = null;
+		optimization = null;
+		numOptimizations += 1;
+		optimizationResult.set(null);
+	}
+
+	private ExecutorService optimizationExecutor() {
+		if (optimizationExecutor == null) {
+			optimizationExecutor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "eocd-optimization");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return optimizationExecutor;
+	}
+
+	// captured on the stream thread and written in the background, null while another checkpoint is being written
+	public Future<?> writeCheckpoint(File file) {
+		if (isWritingCheckpoint() || classifiers == null) {
+			return null;
+		}
+		if (shards != null) {
+			shards.flush(); // the checkpoint includes the pending instances of the buffer
+		}
+		EnsembleCheckpoint checkpoint = EnsembleCheckpoint.capture(classifiers);
+		checkpoint.learnerList = learnerListOption.getValueAsCLIString();
+		checkpoint.header = modelContext;
+		checkpoint.numAttributes = numAttributes;
+		checkpoint.trainingWeightSeen = trainingWeightSeenByModel;
+		checkpoint.countInstances = countInstances;
+		checkpoint.driftState = driftState.ordinal();
+		checkpoint.numRejectedSolves = numRejectedSolves;
+		checkpoint.numAppliedOptimizations = numAppliedOptimizations;
+		checkpoint.window = buffer == null ? null : buffer.snapshot();
+		checkpoint.configurations.addAll(configurations);
+		checkpoint.driftDetector = driftDetectionMethod.copy();
+		checkpointWrite = checkpointExecutor().submit(() -> {
 			try {
-				optimizationThread.join();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}	
+				checkpoint.write(file);
+				numCheckpoints += 1;
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Checkpoint error: " + e.getMessage());
+			}
+		});
+		return checkpointWrite;
+	}
+
+	public boolean isWritingCheckpoint() {
+		return checkpointWrite != null && !checkpointWrite.isDone();
+	}
+
+	// replaces the learned state, the options of the ensemble should be the ones of the checkpointed ensemble
+	// the learner list must be the checkpointed one, the state is left unchanged otherwise
+	public void restoreCheckpoint(File file) throws IOException {
+		EnsembleCheckpoint checkpoint = EnsembleCheckpoint.read(file, classifierRandom);
+		validateCheckpoint(checkpoint, file);
+		cancelOptimization();
+		if (shards != null) {
+			shards.clear();
+		}
+		retired.clear();
+		super.setModelContext(checkpoint.header);
+		numAttributes = checkpoint.numAttributes;
+		classifiers = checkpoint.members;
+		buffer = new InstanceWindow(limitOption.getValue());
+		if (checkpoint.window != null) {
+			buffer.addAll(checkpoint.window);
+		}
+		configurations.clear();
+		configurations.addAll(checkpoint.configurations);
+		driftDetectionMethod = checkpoint.driftDetector;
+		driftState = DriftLevel.values()[checkpoint.driftState];
+		trainingWeightSeenByModel = checkpoint.trainingWeightSeen;
+		countInstances = checkpoint.countInstances;
+		numRejectedSolves = checkpoint.numRejectedSolves;
+		numAppliedOptimizations = checkpoint.numAppliedOptimizations;
+		lastOptimization = null;
+		instancesSinceCheckpoint = 0;
+		votesValid = false;
+		restoredCheckpoint = true;
+	}
+
+	private void validateCheckpoint(EnsembleCheckpoint checkpoint, File file) throws IOException {
+		String learnerList = learnerListOption.getValueAsCLIString();
+		if (!learnerList.equals(checkpoint.learnerList)) {
+			throw new IOException("EOCD checkpoint of other learners (" + checkpoint.learnerList + " instead of " + learnerList + "): " + file);
 		}
+		for (MemberClassifier member : checkpoint.members) {
+			if (member.hyperSet < 0 || member.hyperSet >= possibleMembers.length
+					|| member.learner().getClass() != possibleMembers[member.hyperSet].getClass()) {
+				throw new IOException("Corrupt EOCD checkpoint, member " + member + " does not match the learners: " + file);
+			}
+		}
+	}
 
+	private ExecutorService checkpointExecutor() {
+		if (checkpointExecutor == null) {
+			checkpointExecutor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "eocd-checkpoint");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return checkpointExecutor;
 	}
 
 	public void printSummary() {
@@ -465,22 +822,62 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 		System.out.println(count + " " + Arrays.toString(memberCount) + " " + str.toString());
 	}
 
+	private void prepareVotes(Instance inst) {
+		if (voted == null || voted.length != classifiers.length) {
+			voted = new boolean[classifiers.length];
+			memberVotes = new double[classifiers.length][];
+			votesValid = false;
+		}
+		if (votedValues == null || votedValues.length != inst.numAttributes()) {
+			votedValues = new double[inst.numAttributes()];
+			votesValid = false;
+		}
+		for (int i = 0; i < votedValues.length && votesValid; i++) {
+			votesValid = Double.compare(votedValues[i], inst.value(i)) == 0;
+		}
+		if (!votesValid) {
+			for (int i = 0; i < votedValues.length; i++) {
+				votedValues[i] = inst.value(i);
+			}
+			Arrays.fill(voted, false);
+			votesValid = true;
+			if (shards() != null) {
+				shards.predict(classifiers, inst, memberVotes, voted);
+			}
+		}
+	}
+
+	private MemberShards shards() {
+		if (shards == null && memberThreads.getValue() > 1) {
+			shards = new MemberShards(memberThreads.getValue(), memberBatchSize.getValue());
+		}
+		return shards;
+	}
+
+	private double[] memberVotes(int index, Instance inst) {
+		if (!voted[index]) {
+			memberVotes[index] = classifiers[index].distribution(inst);
+			voted[index] = true;
+		}
+		return memberVotes[index];
+	}
+
 	@Override
 	public double[] getVotesForInstance(Instance inst) {
-		DoubleVector combinedVote = new DoubleVector();
+		if (combinedVote == null) {
+			combinedVote = new VoteCombiner(inst.numClasses());
+		}
+		combinedVote.reset();
 		if (this.trainingWeightSeenByModel > 0.0) {
-			for (MemberClassifier member : this.classifiers) {
+			prepareVotes(inst);
+			for (int i = 0; i < this.classifiers.length; i++) {
+				MemberClassifier member = this.classifiers[i];
 				if (member.isActive) {
-					DoubleVector vote = new DoubleVector(member.distribution(inst));
-					if (vote.sumOfValues() > 0.0) {
-						vote.normalize();
-						vote.scaleValues(member.weight);
-						combinedVote.addValues(vote);
-					}
+					combinedVote.add(memberVotes(i, inst), member.weight);
 				}
 			}
 		}
-		return combinedVote.getArrayRef();
+		return combinedVote.getVotes();
 	}
 
 	@Override
@@ -492,10 +889,51 @@ public class EnsembleOptimizationForConceptDrift extends AbstractClassifier impl
 	protected Measurement[] getModelMeasurementsImpl() {
 		Measurement[] measurements = null;
 		if (this.classifiers != null) {
-			measurements = new Measurement[this.classifiers.length];
+			List<Measurement> list = new ArrayList<>();
 			for (int i = 0; i < this.classifiers.length; i++) {
-				measurements[i] = new Measurement("member weight " + (i + 1), this.classifiers[i].weight);
+				list.add(new Measurement("member weight " + (i + 1), this.classifiers[i].weight));
+			}
+			list.add(new Measurement("rejected solves", numRejectedSolves));
+			list.add(new Measurement("optimizations", numAppliedOptimizations));
+			list.add(new Measurement("checkpoints", numCheckpoints));
+			if (factories != null) {
+				int numCreated = 0;
+				double createMillis = 0.0;
+				for (LearnerFactory factory : factories) {
+					if (factory != null) {
+						numCreated += factory.numCreated();
+						createMillis += factory.createMillis() * factory.numCreated();
+					}
+				}
+				list.add(new Measurement("learners created", numCreated));
+				list.add(new Measurement("learner creation time (ms)", numCreated == 0 ? 0.0 : createMillis / numCreated));
+			}
+			if (scheduler != null) {
+				list.add(new Measurement("scheduler arrival rate (instances/s)", scheduler.arrivalRate()));
+				list.add(new Measurement("scheduler processing time per instance (ms)", scheduler.processingMillis()));
+				list.add(new Measurement("scheduler cost per evaluation (ms)", scheduler.evaluationMillis()));
+				list.add(new Measurement("scheduler triggers", scheduler.numTriggers()));
+				list.add(new Measurement("scheduler coalesced triggers", scheduler.numCoalesced()));
+				list.add(new Measurement("scheduler deferred instances", scheduler.numDeferred()));
+				list.add(new Measurement("scheduler optimizations", scheduler.numScheduled()));
+				list.add(new Measurement("scheduler time budget (s)", scheduler.timeBudget()));
+				list.add(new Measurement("scheduler evaluation budget", scheduler.evaluationBudget()));
+			}
+			OptimizationStats stats = lastOptimization;
+			if (stats != null) {
+				list.add(new Measurement("last optimization trigger (0 drift, 1 frequency)", stats.trigger));
+				list.add(new Measurement("last optimization buffer size", stats.bufferSize));
+				list.add(new Measurement("last optimization evaluations", stats.evaluations));
+				list.add(new Measurement("last optimization generations", stats.generations));
+				list.add(new Measurement("last optimization wall time (ms)", stats.wallMillis));
+				list.add(new Measurement("last optimization votes time (ms)", stats.votesMillis));
+				list.add(new Measurement("last optimization initial cost", stats.initialCost()));
+				list.add(new Measurement("last optimization best cost", stats.bestCost));
+				list.add(new Measurement("last optimization stop reason", stats.stopReason));
+				list.add(new Measurement("last optimization active members", stats.numActive()));
+				list.add(new Measurement("last optimization hidden members", stats.numHidden()));
 			}
+			measurements = list.toArray(new Measurement[list.size()]);
 		}
 		return measurements;
 	}
@@ -10,6 +10,7 @@ import com.github.javacliparser.ListOption;
 import com.github.javacliparser.Option;
 import com.yahoo.labs.samoa.instances.Instance;
 
+import moa.classifiers.eocd.LearnerFactory;
 import moa.core.Measurement;
 import moa.core.ObjectRepository;
 import moa.options.ClassOption;
@@ -45,16 +46,23 @@ public class HeterogeneousDynamicWeightedMajority extends AbstractClassifier imp
 	public IntOption maxExpertsOption = new IntOption("maxExperts", 'e', "Maximum number of allowed experts.",
 			Integer.MAX_VALUE, 2, Integer.MAX_VALUE);
 
+	public IntOption learnerPoolSizeOption = new IntOption("learnerPoolSize", 'P',
+			"Number of removed learners of each base learner kept reset for reuse by new experts.", 10, 0,
+			Integer.MAX_VALUE);
+
 	protected List<Classifier> experts;
 	protected List<Double> weights;
+	protected List<Integer> learnerIndices; // base learner of each expert
 	protected long epochs;
 
 	private Classifier[] possibleMembers;
+	private LearnerFactory[] factories;
 
 	@Override
 	public void prepareForUseImpl(TaskMonitor monitor, ObjectRepository repository) {
 		Option[] learnerOptions = this.learnerListOption.getList();
 		possibleMembers = new Classifier[learnerOptions.length];
+		factories = new LearnerFactory[learnerOptions.length];
 		for (int i = 0; i < learnerOptions.length; i++) {
 			possibleMembers[i] = (AbstractClassifier) ((ClassOption) learnerOptions[i]).materializeObject(monitor,
 					repository);
@@ -65,24 +73,31 @@ public class HeterogeneousDynamicWeightedMajority extends AbstractClassifier imp
 			if (monitor.taskShouldAbort()) {
 				return;
 			}
+			factories[i] = new LearnerFactory(possibleMembers[i], learnerPoolSizeOption.getValue());
 		}
 		super.prepareForUseImpl(monitor, repository);
 	}
 
-	protected Classifier createMember() {
+	protected void addExpert() {
 		int index = this.classifierRandom.nextInt(possibleMembers.length);
-		Classifier classifier = possibleMembers[index].copy();
-		return classifier;
+		this.experts.add(factories[index].create());
+		this.weights.add(1.0);
+		this.learnerIndices.add(index);
+	}
+
+	// the learner of the expert goes back to its factory
+	protected void removeExpert(int i) {
+		Classifier expert = experts.remove(i);
+		weights.remove(i);
+		factories[learnerIndices.remove(i)].release(expert);
 	}
 
 	@Override
 	public void resetLearningImpl() {
 		this.experts = new ArrayList<>(50);
-		Classifier classifier = createMember();
-		classifier.resetLearning();
-		this.experts.add(classifier);
 		this.weights = new ArrayList<>(50);
-		this.weights.add(1.0);
+		this.learnerIndices = new ArrayList<>(50);
+		addExpert();
 		this.epochs = 0;
 	}
 
@@ -96,15 +111,13 @@ public class HeterogeneousDynamicWeightedMajority extends AbstractClassifier imp
 	protected void removeExperts() {
 		for (int i = experts.size() - 1; i >= 0; i--) {
 			if (weights.get(i) < this.thetaOption.getValue()) {
-				experts.remove(i);
-				weights.remove(i);
+				removeExpert(i);
 			} // if
 		} // for
 	} // DWM::removeExperts
 
 	protected void removeWeakestExpert(int i) {
-		experts.remove(i);
-		weights.remove(i);
+		removeExpert(i);
 	} // DWM::removeWeakestExpert
 
 	@Override
@@ -136,10 +149,7 @@ public class HeterogeneousDynamicWeightedMajority extends AbstractClassifier imp
 				if (experts.size() == this.maxExpertsOption.getValue()) {
 					removeWeakestExpert(weakestExpertIndex);
 				}
-				Classifier classifier = createMember();
-				classifier.resetLearning();
-				this.experts.add(classifier);
-				this.weights.add(1.0);
+				addExpert();
 			}
 		}
 		// train experts
@@ -0,0 +1,73 @@
+package moa.classifiers.eocd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+// projected header and index map of a set of removed attributes, shared by the members removing the same attributes
+public class AttributeProjection {
+
+	private static final Map<Instances, Map<SortedSet<Integer>, AttributeProjection>> projections = new WeakHashMap<>();
+
+	private final Instances header;
+
+	private final int[] indices;
+
+	private AttributeProjection(Instances dataset, SortedSet<Integer> removed) {
+		int numAttributes = dataset.numAttributes();
+		indices = new int[numAttributes - removed.size()];
+		List<Attribute> attributes = new ArrayList<>(indices.length);
+		for (int i = 0, count = 0; i < numAttributes; i++) {
+			if (!removed.contains(i)) {
+				indices[count++] = i;
+				attributes.add(dataset.attribute(i));
+			}
+		}
+		header = new Instances("", attributes, 0);
+		header.setClassIndex(indices.length - 1);
+	}
+
+	public static AttributeProjection of(Instances dataset, SortedSet<Integer> removed) {
+		synchronized (projections) {
+			Map<SortedSet<Integer>, AttributeProjection> byRemoved = projections.get(dataset);
+			if (byRemoved == null) {
+				byRemoved = new HashMap<>();
+				projections.put(dataset, byRemoved);
+			}
+			AttributeProjection projection = byRemoved.get(removed);
+			if (projection == null) {
+				SortedSet<Integer> key = Collections.unmodifiableSortedSet(new TreeSet<>(removed));
+				projection = new AttributeProjection(dataset, key);
+				byRemoved.put(key, projection);
+			}
+			return projection;
+		}
+	}
+
+	public Instances header() {
+		return header;
+	}
+
+	public Instance newInstance() {
+		Instance instance = new DenseInstance(1.0, new double[indices.length]);
+		instance.setDataset(header);
+		return instance;
+	}
+
+	public Instance project(Instance instance, Instance projected) {
+		for (int i = 0; i < indices.length; i++) {
+			projected.setValue(i, instance.value(indices[i]));
+		}
+		return projected;
+	}
+}
@@ -0,0 +1,72 @@
+package moa.classifiers.eocd;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+// sampled configurations, oldest first, bounded: the oldest or the least fit is evicted
+public class ConfigurationArchive extends AbstractList<EnsembleMemberConfiguration> {
+
+	public static final int EVICT_OLDEST = 0;
+
+	public static final int EVICT_LEAST_FIT = 1;
+
+	private final List<EnsembleMemberConfiguration> configurations = new ArrayList<>();
+
+	private final int capacity;
+
+	private final int eviction;
+
+	public ConfigurationArchive(int capacity, int eviction) {
+		this.capacity = Math.max(1, capacity);
+		this.eviction = eviction;
+	}
+
+	@Override
+	public boolean add(EnsembleMemberConfiguration configuration) {
+		configurations.add(configuration);
+		if (configurations.size() > capacity) {
+			configurations.remove(evictionIndex());
+		}
+		modCount += 1;
+		return true;
+	}
+
+	private int evictionIndex() {
+		int index = 0;
+		if (eviction == EVICT_LEAST_FIT) {
+			for (int i = 1; i < configurations.size(); i++) {
+				if (configurations.get(i).fitness() < configurations.get(index).fitness()) {
+					index = i;
+				}
+			}
+		}
+		return index;
+	}
+
+	@Override
+	public EnsembleMemberConfiguration get(int index) {
+		return configurations.get(index);
+	}
+
+	@Override
+	public EnsembleMemberConfiguration remove(int index) {
+		modCount += 1;
+		return configurations.remove(index);
+	}
+
+	@Override
+	public void clear() {
+		modCount += 1;
+		configurations.clear();
+	}
+
+	@Override
+	public int size() {
+		return configurations.size();
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+}
@@ -0,0 +1,199 @@
+package moa.classifiers.eocd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.classifiers.AbstractClassifier;
+import moa.classifiers.core.driftdetection.ChangeDetector;
+
+// versioned binary snapshot of the state of an EOCD ensemble, captured on the stream thread and written on another one
+// the learners are not copied by the capture: a member trained before its learner is written trains a copy, see MemberClassifier.freeze()
+public class EnsembleCheckpoint {
+
+	public static final int MAGIC = 0x454f4344; // "EOCD"
+
+	public static final int VERSION = 2;
+
+	public String learnerList; // CLI string of the learner list, the hyper sets of the members index it
+	public InstancesHeader header;
+	public int numAttributes;
+	public double trainingWeightSeen;
+	public int countInstances;
+	public int driftState;
+	public long numRejectedSolves;
+	public int numAppliedOptimizations;
+	public InstanceWindow.Snapshot window; // null for no buffer
+	public List<EnsembleMemberConfiguration> configurations = new ArrayList<>();
+	public ChangeDetector driftDetector;
+
+	// restored members, or the captured ones until written
+	public MemberClassifier[] members;
+
+	// member state as of the capture, the stream thread keeps updating the members
+	private MemberClassifier.Frozen[] learners;
+	private double[] weights;
+	private boolean[] active;
+	private boolean[] hidden;
+	private double[] trained;
+	private double[] misses;
+
+	private EnsembleCheckpoint() {
+	}
+
+	// must be called on the thread training the members, after a pending training of the members
+	public static EnsembleCheckpoint capture(MemberClassifier[] members) {
+		EnsembleCheckpoint checkpoint = new EnsembleCheckpoint();
+		checkpoint.members = members.clone();
+		checkpoint.learners = new MemberClassifier.Frozen[members.length];
+		checkpoint.weights = new double[members.length];
+		checkpoint.active = new boolean[members.length];
+		checkpoint.hidden = new boolean[members.length];
+		checkpoint.trained = new double[members.length];
+		checkpoint.misses = new double[members.length];
+		for (int i = 0; i < members.length; i++) {
+			MemberClassifier member = members[i];
+			checkpoint.learners[i] = member.freeze();
+			checkpoint.weights[i] = member.weight;
+			checkpoint.active[i] = member.isActive;
+			checkpoint.hidden[i] = member.isHidden;
+			checkpoint.trained[i] = member.trained();
+			checkpoint.misses[i] = member.misses();
+		}
+		return checkpoint;
+	}
+
+	// written to a temporary file moved over the file, a member is released as soon as its learner is written
+	public void write(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(tmp))) {
+				DataOutputStream data = new DataOutputStream(stream);
+				data.writeInt(MAGIC);
+				data.writeInt(VERSION);
+				data.flush();
+				ObjectOutputStream out = new ObjectOutputStream(stream);
+				writeState(out);
+				out.flush();
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			for (MemberClassifier.Frozen learner : learners) {
+				learner.release();
+			}
+		}
+	}
+
+	private void writeState(ObjectOutputStream out) throws IOException {
+		out.writeObject(learnerList);
+		out.writeObject(header);
+		out.writeInt(numAttributes);
+		out.writeDouble(trainingWeightSeen);
+		out.writeInt(countInstances);
+		out.writeInt(driftState);
+		out.writeLong(numRejectedSolves);
+		out.writeInt(numAppliedOptimizations);
+
+		out.writeInt(members.length);
+		for (int i = 0; i < members.length; i++) {
+			out.writeInt(members[i].hyperSet);
+			out.writeDouble(weights[i]);
+			out.writeBoolean(active[i]);
+			out.writeBoolean(hidden[i]);
+			out.writeDouble(trained[i]);
+			out.writeDouble(misses[i]);
+			SortedSet<Integer> removed = members[i].removedAttributes();
+			out.writeInt(removed.size());
+			for (int att : removed) {
+				out.writeInt(att);
+			}
+			out.writeObject(learners[i].learner);
+			learners[i].release(); // serialized, the member trains it again without copying
+		}
+
+		out.writeBoolean(window != null);
+		if (window != null) {
+			window.write(out);
+		}
+		out.writeInt(configurations.size());
+		for (EnsembleMemberConfiguration configuration : configurations) {
+			configuration.write(out);
+		}
+		out.writeObject(driftDetector);
+	}
+
+	public static EnsembleCheckpoint read(File file, Random random) throws IOException {
+		try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+			DataInputStream data = new DataInputStream(stream);
+			if (data.readInt() != MAGIC) {
+				throw new IOException("Not an EOCD checkpoint: " + file);
+			}
+			int version = data.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported EOCD checkpoint version " + version + ": " + file);
+			}
+			ObjectInputStream in = new ObjectInputStream(stream);
+			EnsembleCheckpoint checkpoint = new EnsembleCheckpoint();
+			checkpoint.readState(in, random);
+			return checkpoint;
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException("Corrupt EOCD checkpoint: " + file, e);
+		}
+	}
+
+	private void readState(ObjectInputStream in, Random random) throws IOException, ClassNotFoundException {
+		learnerList = (String) in.readObject();
+		header = (InstancesHeader) in.readObject();
+		numAttributes = in.readInt();
+		trainingWeightSeen = in.readDouble();
+		countInstances = in.readInt();
+		driftState = in.readInt();
+		numRejectedSolves = in.readLong();
+		numAppliedOptimizations = in.readInt();
+
+		members = new MemberClassifier[in.readInt()];
+		for (int i = 0; i < members.length; i++) {
+			int hyperSet = in.readInt();
+			double weight = in.readDouble();
+			boolean isActive = in.readBoolean();
+			boolean isHidden = in.readBoolean();
+			double memberTrained = in.readDouble();
+			double memberMisses = in.readDouble();
+			SortedSet<Integer> removed = new TreeSet<>();
+			int numRemoved = in.readInt();
+			for (int j = 0; j < numRemoved; j++) {
+				removed.add(in.readInt());
+			}
+			AbstractClassifier learner = (AbstractClassifier) in.readObject();
+			members[i] = new MemberClassifier(learner, hyperSet, removed, memberTrained, memberMisses, random, numAttributes);
+			members[i].weight = weight;
+			members[i].isActive = isActive;
+			members[i].isHidden = isHidden;
+		}
+
+		window = in.readBoolean() ? InstanceWindow.Snapshot.read(in, header) : null;
+		int numConfigurations = in.readInt();
+		for (int i = 0; i < numConfigurations; i++) {
+			configurations.add(EnsembleMemberConfiguration.read(in));
+		}
+		driftDetector = (ChangeDetector) in.readObject();
+	}
+}
@@ -1,26 +1,30 @@
 package moa.classifiers.eocd;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 public class EnsembleMemberConfiguration {
 
 	protected List<Member> members;
-	protected MemberClassifier[] classifiers;
+
+	// weighted training accuracy of the active members when sampled
+	protected final double fitness;
 
 	private class Member implements Comparable<Member> {
 		int type;
 		int hyper;
-		Set<Integer> removedAtt;
+		long[] removedMask;
 		double weight;
 
-		public Member(int type, int hyper, Set<Integer> removedAtt, double weight) {
+		public Member(int type, int hyper, long[] removedMask, double weight) {
 			this.type = type;
 			this.hyper = hyper;
-			this.removedAtt = new HashSet<>(removedAtt);
+			this.removedMask = removedMask;
 			this.weight = weight;
 		}
 
@@ -45,18 +49,66 @@ public class EnsembleMemberConfiguration {
 
 	public EnsembleMemberConfiguration(MemberClassifier[] classifiers) {
 		this.members = new ArrayList<>();
-		this.classifiers = classifiers;
+		double accuracy = 0.0;
+		double totalWeight = 0.0;
 		for (MemberClassifier member : classifiers) {
 			if (member.isActive) {
-				members.add(new Member(member.type, member.hyperSet, member.removedAttributes(), member.weight));
+				members.add(new Member(member.type, member.hyperSet, member.removedMask(), member.weight));
+				accuracy += member.weight * member.accuracy();
+				totalWeight += member.weight;
+			}
+		}
+		this.fitness = totalWeight > 0 ? accuracy / totalWeight : 0.0;
+	}
+
+	private EnsembleMemberConfiguration(double fitness) {
+		this.members = new ArrayList<>();
+		this.fitness = fitness;
+	}
+
+	void write(DataOutput out) throws IOException {
+		out.writeDouble(fitness);
+		out.writeInt(members.size());
+		for (Member member : members) {
+			out.writeInt(member.type);
+			out.writeInt(member.hyper);
+			out.writeDouble(member.weight);
+			out.writeInt(member.removedMask.length);
+			for (long word : member.removedMask) {
+				out.writeLong(word);
 			}
 		}
 	}
 
+	static EnsembleMemberConfiguration read(DataInput in) throws IOException {
+		EnsembleMemberConfiguration configuration = new EnsembleMemberConfiguration(in.readDouble());
+		int numMembers = in.readInt();
+		for (int i = 0; i < numMembers; i++) {
+			int type = in.readInt();
+			int hyper = in.readInt();
+			double weight = in.readDouble();
+			long[] removedMask = new long[in.readInt()];
+			for (int j = 0; j < removedMask.length; j++) {
+				removedMask[j] = in.readLong();
+			}
+			configuration.members.add(configuration.new Member(type, hyper, removedMask, weight));
+		}
+		return configuration;
+	}
+
+	public double fitness() {
+		return fitness;
+	}
+
 	public void configure(Solve solve) {
 		Arrays.fill(solve.encode, 0.0);
-		boolean[] used = new boolean[classifiers.length];
 		Problem problem = (Problem) solve.problem;
+		MemberClassifier[] classifiers = problem.classifiers;
+		Set<Integer> encoded = problem.activeClassifiers();
+		boolean[] used = new boolean[classifiers.length];
+		for (int i = 0; i < classifiers.length; i++) {
+			used[i] = !encoded.contains(i); // only members encoded in the solve
+		}
 		for (Member member : members) {
 			int maxIndex = -1;
 			int maxSim = -1;
@@ -79,15 +131,16 @@ public class EnsembleMemberConfiguration {
 
 	}
 
+	// number of attributes removed by both
 	private int similarity(MemberClassifier classifier, Member member) {
 		int sim = 0;
 		if (classifier.type == member.type) {
-			for (Integer att : classifier.removedAttributes()) {
-				if (member.removedAtt.contains(att)) {
-					sim += 1;
-				}
+			long[] a = classifier.removedMask();
+			long[] b = member.removedMask;
+			for (int i = 0; i < a.length && i < b.length; i++) {
+				sim += Long.bitCount(a[i] & b[i]);
 			}
 		}
 		return sim;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,167 @@
+package moa.classifiers.eocd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// exponentiated gradient descent of the squared loss between the combined member votes and the labels, deterministic
+// the weights stay on the simplex, the members whose weight ends below pruneFactor / members are deactivated
+public class ExponentiatedGradientOptimizer implements WeightOptimizer {
+
+	public final Problem problem;
+
+	public final StopCondition stopCondition;
+
+	protected double learningRate = 2.0;
+
+	protected double pruneFactor = 0.1;
+
+	private double[] bestWeights; // encoding order
+
+	private double bestCost = 1.0;
+
+	private volatile boolean cancelled;
+
+	private final List<Double> trajectory = new ArrayList<>();
+
+	public ExponentiatedGradientOptimizer(Problem problem, StopCondition stopCondition) {
+		this.problem = problem;
+		this.stopCondition = stopCondition;
+	}
+
+	@Override
+	public void execute() {
+		stopCondition.start();
+		int numMembers = problem.sizeEncode;
+		int numInstances = problem.numInstances();
+		int numClasses = problem.numClasses();
+		double[] votes = problem.votes();
+		int[] labels = problem.labels();
+		if (numMembers == 0 || numInstances == 0) {
+			stopCondition.stop();
+			return;
+		}
+
+		double[] weights = new double[numMembers];
+		Arrays.fill(weights, 1.0 / numMembers);
+		double[] residual = new double[numClasses];
+		double[] gradient = new double[numMembers];
+		while (!cancelled && stopCondition.isRunning()) {
+			Arrays.fill(gradient, 0.0);
+			double error = 0;
+			for (int n = 0; n < numInstances; n++) {
+				int offset = n * numMembers * numClasses;
+				Arrays.fill(residual, 0.0);
+				for (int m = 0; m < numMembers; m++) {
+					int base = offset + m * numClasses;
+					for (int c = 0; c < numClasses; c++) {
+						residual[c] += votes[base + c] * weights[m];
+					}
+				}
+				int y = 0;
+				for (int c = 1; c < numClasses; c++) {
+					if (residual[c] > residual[y]) {
+						y = c;
+					}
+				}
+				if (y != labels[n]) {
+					error += 1;
+				}
+				residual[labels[n]] -= 1.0;
+				for (int m = 0; m < numMembers; m++) {
+					int base = offset + m * numClasses;
+					for (int c = 0; c < numClasses; c++) {
+						gradient[m] += residual[c] * votes[base + c];
+					}
+				}
+			}
+			error = error / numInstances;
+			stopCondition.evaluation();
+			if (bestWeights == null || error < bestCost) {
+				bestWeights = weights.clone();
+				bestCost = error;
+				stopCondition.update();
+			}
+			trajectory.add(bestCost);
+
+			// multiplicative update, shifted by the largest exponent for stability
+			double maxExponent = Double.NEGATIVE_INFINITY;
+			for (int m = 0; m < numMembers; m++) {
+				gradient[m] = -learningRate * 2.0 * gradient[m] / numInstances;
+				maxExponent = Math.max(maxExponent, gradient[m]);
+			}
+			double sum = 0;
+			for (int m = 0; m < numMembers; m++) {
+				weights[m] *= Math.exp(gradient[m] - maxExponent);
+				sum += weights[m];
+			}
+			for (int m = 0; m < numMembers; m++) {
+				weights[m] /= sum;
+			}
+			stopCondition.iteration();
+		}
+
+		if (bestWeights != null) {
+			double threshold = pruneFactor / numMembers;
+			for (int m = 0; m < numMembers; m++) {
+				if (bestWeights[m] < threshold) {
+					bestWeights[m] = 0.0;
+				}
+			}
+			bestCost = problem.cost(bestWeights);
+		}
+		stopCondition.stop();
+	}
+
+	@Override
+	public Problem problem() {
+		return problem;
+	}
+
+	@Override
+	public StopCondition stopCondition() {
+		return stopCondition;
+	}
+
+	// scaled so the largest weight is 1, as the weights of the genetic algorithm
+	@Override
+	public double[] bestWeights() {
+		if (bestWeights == null) {
+			return null;
+		}
+		double max = 0;
+		for (double weight : bestWeights) {
+			max = Math.max(max, weight);
+		}
+		double[] weights = new double[bestWeights.length];
+		for (int m = 0; m < weights.length; m++) {
+			weights[m] = max > 0 ? bestWeights[m] / max : 0.0;
+		}
+		return problem.toMemberWeights(weights);
+	}
+
+	@Override
+	public double[] costTrajectory() {
+		double[] costs = new double[trajectory.size()];
+		for (int i = 0; i < costs.length; i++) {
+			costs[i] = trajectory.get(i);
+		}
+		return costs;
+	}
+
+	@Override
+	public double bestCost() {
+		return bestCost;
+	}
+
+	@Override
+	public void cancel() {
+		cancelled = true;
+		stopCondition.stop();
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
@@ -6,9 +6,14 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 // Essential metaheuristics page 37
-public class GeneticAlgorithm {
+public class GeneticAlgorithm implements WeightOptimizer {
 
 	public final StopCondition stopCondition;
 
@@ -30,8 +35,16 @@ public class GeneticAlgorithm {
 
 	protected int numRounds = 2;
 
+	protected int numThreads = 1;
+
+	private ExecutorService executor;
+
+	private volatile boolean cancelled;
+
 	private List<Solve> population = new ArrayList<>();
 
+	private final List<Double> trajectory = new ArrayList<>();
+
 	public GeneticAlgorithm(Problem problem, StopCondition stopCondition, Random rand) {
 		this.problem = problem;
 		this.stopCondition = stopCondition;
@@ -43,29 +56,15 @@ public class GeneticAlgorithm {
 	protected void run() {
 		//System.out.println("GA");
 
-		population = newPopulation(sizePopulation);
-		//System.out.println("START POP");
-		for (Solve solve : population) {
-			evaluate(solve);
-			recordBestSolve(solve);
-			//System.out.println("\t" + solve);
-		}
+		initialize();
+		trajectory.add(eliteCost());
 		//System.out.println();
 		//System.out.println("BEST SOLVE " + this.bestSolve());
 
 		//System.out.println(stopCondition);
-		while (stopCondition.isRunning()) {
-			List<Solve> offsprings = breed(population);
-			//System.out.println("OFFSPRINGS");
-			for (Solve solve : offsprings) {
-				evaluate(solve);
-				recordBestSolve(solve);
-				//System.out.println("\t" + solve);
-			}
-			//System.out.println();
-			//System.out.println("BEST SOLVE " + this.bestSolve());
-			join(population, offsprings, sizePopulation);
-			stopCondition.iteration();
+		while (isRunning()) {
+			generation();
+			trajectory.add(eliteCost());
 
 			//System.out.println("NEW POP");
 			//Collections.sort(population);
@@ -79,6 +78,28 @@ public class GeneticAlgorithm {
 		}
 	}
 
+	protected void initialize() {
+		population = newPopulation(sizePopulation);
+		//System.out.println("START POP");
+		evaluate(population);
+	}
+
+	protected void generation() {
+		List<Solve> offsprings = breed(population);
+		//System.out.println("OFFSPRINGS");
+		evaluate(offsprings);
+		join(population, offsprings, sizePopulation);
+		stopCondition.iteration();
+	}
+
+	protected boolean isRunning() {
+		return !cancelled && stopCondition.isRunning();
+	}
+
+	protected void countEvaluation() {
+		stopCondition.evaluation();
+	}
+
 	protected List<Solve> breed(List<Solve> population) {
 		List<Solve> offsprings = new ArrayList<>();
 		List<Solve> parents = select(population, sizePopulation);
@@ -87,27 +108,152 @@ public class GeneticAlgorithm {
 			for (int j = 0; j < 2; j++) {
 				selectedParents.add(parents.get(j + i));
 			}
-			List<Solve> off = crossover(selectedParents);
+			Random stream = new Random(rand.nextLong()); // own stream for each pair of parents
+			List<Solve> off = crossover(selectedParents, stream);
 			for (Solve solve : off) {
-				mutation(solve);
+				mutation(solve, stream);
 			}
 			offsprings.addAll(off);
 		}
 		return offsprings;
 	}
 
+	@Override
 	public void execute() {
-		stopCondition.start();
-		run();
+		if (numThreads > 1) {
+			executor = Executors.newFixedThreadPool(numThreads, runnable -> {
+				Thread thread = new Thread(runnable, "eocd-evaluation");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		try {
+			stopCondition.start();
+			run();
+			stopCondition.stop();
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+				executor = null;
+			}
+		}
+	}
+
+	@Override
+	public Problem problem() {
+		return problem;
+	}
+
+	@Override
+	public StopCondition stopCondition() {
+		return stopCondition;
+	}
+
+	@Override
+	public double[] bestWeights() {
+		Solve best = bestSolve();
+		return best == null ? null : problem.getWeights(best);
+	}
+
+	@Override
+	public double[] costTrajectory() {
+		double[] costs = new double[trajectory.size()];
+		for (int i = 0; i < costs.length; i++) {
+			costs[i] = trajectory.get(i);
+		}
+		return costs;
+	}
+
+	@Override
+	public double bestCost() {
+		Solve best = bestSolve();
+		return best == null ? 1.0 : best.cost();
+	}
+
+	// cooperative cancellation, the run stops at the next evaluation
+	@Override
+	public void cancel() {
+		cancelled = true;
 		stopCondition.stop();
 	}
 
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	// evaluates and records the solves in order, with a pool the costs are computed concurrently on copies
+	protected void evaluate(List<Solve> solves) {
+		if (executor == null) {
+			for (Solve solve : solves) {
+				evaluate(solve);
+				recordBestSolve(solve);
+			}
+			return;
+		}
+		List<Future<Solve>> futures = new ArrayList<>(solves.size());
+		double eliteCost = eliteCost();
+		for (Solve solve : solves) {
+			Solve candidate = solve.clone();
+			futures.add(executor.submit(evaluation(candidate, eliteCost)));
+		}
+		for (int i = 0; i < solves.size(); i++) {
+			Solve solve = solves.get(i);
+			Solve candidate = get(futures.get(i));
+			if (candidate != null && isRunning()) {
+				solve.copy(candidate);
+				countEvaluation();
+			} else {
+				solve.evaluated(false);
+			}
+			recordBestSolve(solve);
+		}
+	}
+
+	private Callable<Solve> evaluation(Solve candidate, double eliteCost) {
+		return () -> {
+			if (!isRunning()) {
+				return null;
+			}
+			candidate.repair();
+			problem.evaluate(candidate, eliteCost);
+			candidate.evaluated(true);
+			return candidate;
+		};
+	}
+
+	private static Solve get(Future<Solve> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			System.err.println("Evaluation ERROR!!!" + e.getCause());
+			return null;
+		}
+	}
+
+	// cost of the best solve, candidates that can not beat it may be rejected early
+	protected double eliteCost() {
+		Solve best = bestSolve();
+		return best == null ? Double.POSITIVE_INFINITY : best.cost();
+	}
+
 	public void evaluate(Solve solve) {
-		if (stopCondition.isRunning()) {
+		if (isRunning()) {
 			solve.repair();
-			problem.evaluate(solve);
+			problem.evaluate(solve, eliteCost());
 			solve.evaluated(true);
-			stopCondition.evaluation();
+			countEvaluation();
 		} else {
 			solve.evaluated(false);
 		}
@@ -173,9 +319,9 @@ public class GeneticAlgorithm {
 				solves.add(solve);
 			}
 		}
-		for (int i = 0; i < size - solves.size(); i++) {
+		while (solves.size() < size) {
 			Solve solve = problem.createEmptySolve();
-			for (int j = 0; j < solve.encode.length; i++) {
+			for (int j = 0; j < solve.encode.length; j++) {
 				solve.encode[j] = rand.nextDouble();
 			}
 			solves.add(solve);
@@ -206,7 +352,7 @@ public class GeneticAlgorithm {
 		population.addAll(finalPop);
 	}
 
-	protected List<Solve> crossover(List<Solve> parents) { // uniform
+	protected List<Solve> crossover(List<Solve> parents, Random rand) { // uniform
 		Solve pa = parents.get(0);
 		Solve pb = parents.get(1);
 		Solve oa = null;
@@ -215,6 +361,8 @@ public class GeneticAlgorithm {
 			oa = problem.createEmptySolve();
 			ob = problem.createEmptySolve();
 			apply(pa.encode, pb.encode, oa.encode, ob.encode, rateLocus, rand);
+			oa.copyScores(pa);
+			ob.copyScores(pb);
 		} else {
 			oa = pa.clone();
 			ob = pb.clone();
@@ -234,7 +382,7 @@ public class GeneticAlgorithm {
 		}
 	}
 
-	protected void mutation(Solve solve) { // bit flip proportional uniform
+	protected void mutation(Solve solve, Random rand) { // bit flip proportional uniform
 		int num = generatePoissonNumber(1, rand); // 1/l
 		for (int i = 0; i < num; i++) {
 			int index = rand.nextInt(problem.sizeEncode);
@@ -0,0 +1,141 @@
+package moa.classifiers.eocd;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+// sliding window of the last instances as primitive rows, a ring buffer with constant time append and eviction
+public class InstanceWindow implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final double[][] rows;
+
+	private final double[] weights;
+
+	private Instances header;
+
+	private int first;
+
+	private int size;
+
+	public InstanceWindow(int capacity) {
+		rows = new double[capacity][];
+		weights = new double[capacity];
+	}
+
+	// the oldest instance is evicted when the window is full
+	public void add(Instance inst) {
+		double[] row = new double[inst.numAttributes()]; // rows are never modified, snapshots share them
+		for (int i = 0; i < row.length; i++) {
+			row[i] = inst.value(i);
+		}
+		add(row, inst.weight());
+		header = inst.dataset();
+	}
+
+	// the instances of a snapshot, e.g. restored from a checkpoint
+	public void addAll(Snapshot snapshot) {
+		for (int i = 0; i < snapshot.rows.length; i++) {
+			add(snapshot.rows[i], snapshot.weights[i]);
+		}
+		if (snapshot.header != null) {
+			header = snapshot.header;
+		}
+	}
+
+	private void add(double[] row, double weight) {
+		int index = (first + size) % rows.length;
+		if (size == rows.length) {
+			first = (first + 1) % rows.length;
+		} else {
+			size += 1;
+		}
+		rows[index] = row;
+		weights[index] = weight;
+	}
+
+	public int numInstances() {
+		return size;
+	}
+
+	public int capacity() {
+		return rows.length;
+	}
+
+	public Snapshot snapshot() {
+		double[][] copy = new double[size][];
+		double[] copyWeights = new double[size];
+		for (int i = 0; i < size; i++) {
+			int index = (first + i) % rows.length;
+			copy[i] = rows[index];
+			copyWeights[i] = weights[index];
+		}
+		return new Snapshot(header, copy, copyWeights);
+	}
+
+	// immutable view of the window, oldest instance first
+	public static class Snapshot {
+
+		private final Instances header;
+
+		private final double[][] rows;
+
+		private final double[] weights;
+
+		private Snapshot(Instances header, double[][] rows, double[] weights) {
+			this.header = header;
+			this.rows = rows;
+			this.weights = weights;
+		}
+
+		public int numInstances() {
+			return rows.length;
+		}
+
+		public int numClasses() {
+			return header == null ? 0 : header.numClasses();
+		}
+
+		public Instances header() {
+			return header;
+		}
+
+		public Instance instance(int index) {
+			Instance inst = new DenseInstance(weights[index], rows[index].clone());
+			inst.setDataset(header);
+			return inst;
+		}
+
+		// the rows and weights, the header is written apart
+		void write(DataOutput out) throws IOException {
+			out.writeInt(rows.length);
+			out.writeInt(rows.length == 0 ? 0 : rows[0].length);
+			for (int i = 0; i < rows.length; i++) {
+				out.writeDouble(weights[i]);
+				for (double value : rows[i]) {
+					out.writeDouble(value);
+				}
+			}
+		}
+
+		static Snapshot read(DataInput in, Instances header) throws IOException {
+			int numInstances = in.readInt();
+			int numAttributes = in.readInt();
+			double[][] rows = new double[numInstances][numAttributes];
+			double[] weights = new double[numInstances];
+			for (int i = 0; i < numInstances; i++) {
+				weights[i] = in.readDouble();
+				for (int j = 0; j < numAttributes; j++) {
+					rows[i][j] = in.readDouble();
+				}
+			}
+			return new Snapshot(header, rows, weights);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package moa.classifiers.eocd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// island model: sub-populations evolve on their own threads and send their best solve to the next island (ring)
+// the stop condition of the algorithm bounds the evaluations and time of all islands, each island has a copy for its generations
+public class IslandGeneticAlgorithm extends GeneticAlgorithm {
+
+	private final int numIslands;
+
+	private final int migrationInterval;
+
+	private volatile List<Island> islands = Collections.emptyList();
+
+	public IslandGeneticAlgorithm(Problem problem, StopCondition stopCondition, Random rand, int numIslands, int migrationInterval) {
+		super(problem, stopCondition, rand);
+		this.numIslands = Math.max(1, numIslands);
+		this.migrationInterval = Math.max(1, migrationInterval);
+	}
+
+	@Override
+	public void execute() {
+		List<Island> islands = new ArrayList<>(numIslands);
+		for (int k = 0; k < numIslands; k++) {
+			islands.add(new Island(new Random(rand.nextLong()), numRounds + k % 3)); // different selection pressures
+		}
+		for (int k = 0; k < numIslands; k++) {
+			islands.get(k).next = islands.get((k + 1) % numIslands);
+		}
+		this.islands = islands;
+
+		ExecutorService executor = Executors.newFixedThreadPool(numIslands, runnable -> {
+			Thread thread = new Thread(runnable, "eocd-island");
+			thread.setDaemon(true);
+			return thread;
+		});
+		stopCondition.start();
+		try {
+			List<Future<?>> futures = new ArrayList<>(numIslands);
+			for (Island island : islands) {
+				futures.add(executor.submit(island::execute));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					System.err.println("Island ERROR!!!" + e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					cancel();
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		for (Island island : islands) {
+			for (Solve solve : island.bestSolves()) {
+				recordBestSolve(solve);
+			}
+		}
+		stopCondition.stop();
+	}
+
+	@Override
+	public void cancel() {
+		super.cancel();
+		for (Island island : islands) {
+			island.cancel();
+		}
+	}
+
+	// trajectory of the island that found the best solve
+	@Override
+	public double[] costTrajectory() {
+		Island best = null;
+		for (Island island : islands) {
+			if (best == null || island.bestCost() < best.bestCost()) {
+				best = island;
+			}
+		}
+		return best == null ? new double[0] : best.costTrajectory();
+	}
+
+	public int numIslands() {
+		return numIslands;
+	}
+
+	private class Island extends GeneticAlgorithm {
+
+		private final Queue<Solve> inbox = new ConcurrentLinkedQueue<>();
+
+		private Island next;
+
+		private int generations;
+
+		Island(Random rand, int numRounds) {
+			super(IslandGeneticAlgorithm.this.problem, IslandGeneticAlgorithm.this.stopCondition.copy(), rand);
+			this.sizePopulation = IslandGeneticAlgorithm.this.sizePopulation;
+			this.numElitism = IslandGeneticAlgorithm.this.numElitism;
+			this.rateLocus = IslandGeneticAlgorithm.this.rateLocus;
+			this.rateCrossover = IslandGeneticAlgorithm.this.rateCrossover;
+			this.numRounds = numRounds;
+		}
+
+		@Override
+		protected boolean isRunning() {
+			return super.isRunning() && IslandGeneticAlgorithm.this.isRunning();
+		}
+
+		@Override
+		protected void countEvaluation() {
+			super.countEvaluation();
+			IslandGeneticAlgorithm.this.countEvaluation();
+		}
+
+		@Override
+		protected void generation() {
+			super.generation();
+			generations += 1;
+			if (generations % migrationInterval == 0) {
+				migrate();
+			}
+		}
+
+		// the best solve goes to the next island, the received ones replace the worst solves when better
+		private void migrate() {
+			Solve best = bestSolve();
+			if (best != null) {
+				next.inbox.add(best.clone());
+			}
+			List<Solve> population = population();
+			Solve migrant;
+			while ((migrant = inbox.poll()) != null && !population.isEmpty()) {
+				Collections.sort(population);
+				int worst = population.size() - 1;
+				if (migrant.compareTo(population.get(worst)) < 0) {
+					population.set(worst, migrant);
+					recordBestSolve(migrant);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package moa.classifiers.eocd;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.github.javacliparser.FlagOption;
+import com.github.javacliparser.FloatOption;
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
+import com.github.javacliparser.Option;
+
+import moa.classifiers.Classifier;
+
+// builds fresh learners of a prepared prototype from its class and options, instead of a serialization copy,
+// and keeps a bounded pool of retired learners reset for reuse
+public class LearnerFactory implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Classifier prototype;
+
+	// the option values of the prototype, parsed once and assigned to every new learner
+	private final Option[] values;
+
+	private final int poolSize;
+
+	private final Deque<Classifier> pool = new ArrayDeque<>();
+
+	private boolean instantiable = true;
+
+	private int numCreated;
+
+	private long createNanos;
+
+	public LearnerFactory(Classifier prototype, int poolSize) {
+		this.prototype = prototype;
+		Option[] options = prototype.getOptions().getOptionArray();
+		this.values = new Option[options.length];
+		for (int i = 0; i < options.length; i++) {
+			values[i] = options[i].copy();
+		}
+		this.poolSize = poolSize;
+	}
+
+	// a learner that has not learned anything
+	public Classifier create() {
+		Classifier learner = pool.pollFirst();
+		if (learner != null) {
+			return learner;
+		}
+		long start = System.nanoTime();
+		learner = instantiate();
+		if (learner == null) {
+			learner = prototype.copy();
+		}
+		learner.resetLearning();
+		numCreated += 1;
+		createNanos += System.nanoTime() - start;
+		return learner;
+	}
+
+	// null if the class of the prototype has no accessible constructor without arguments
+	private Classifier instantiate() {
+		if (!instantiable) {
+			return null;
+		}
+		Classifier learner;
+		try {
+			learner = prototype.getClass().getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			instantiable = false;
+			System.err.println("Learners of " + prototype.getClass().getName() + " are copied, the class can not be instantiated: " + e);
+			return null;
+		}
+		Option[] options = learner.getOptions().getOptionArray();
+		for (int i = 0; i < options.length; i++) {
+			assign(options[i], values[i]);
+		}
+		learner.prepareForUse();
+		return learner;
+	}
+
+	private static void assign(Option option, Option value) {
+		if (option instanceof IntOption) {
+			((IntOption) option).setValue(((IntOption) value).getValue());
+		} else if (option instanceof FloatOption) {
+			((FloatOption) option).setValue(((FloatOption) value).getValue());
+		} else if (option instanceof FlagOption) {
+			if (((FlagOption) value).isSet()) {
+				((FlagOption) option).set();
+			} else {
+				((FlagOption) option).unset();
+			}
+		} else if (option instanceof MultiChoiceOption) {
+			((MultiChoiceOption) option).setChosenIndex(((MultiChoiceOption) value).getChosenIndex());
+		} else { // e.g. a nested learner, materialized for each learner by prepareForUse()
+			option.setValueViaCLIString(value.getValueAsCLIString());
+		}
+	}
+
+	// a learner created by this factory, it must not be used by the caller anymore
+	public void release(Classifier learner) {
+		if (learner != null && learner.getClass() == prototype.getClass() && pool.size() < poolSize) {
+			learner.resetLearning();
+			pool.addFirst(learner);
+		}
+	}
+
+	public int pooled() {
+		return pool.size();
+	}
+
+	public int numCreated() {
+		return numCreated;
+	}
+
+	// mean time to create a learner not taken from the pool
+	public double createMillis() {
+		return numCreated == 0 ? 0.0 : createNanos / 1e6 / numCreated;
+	}
+}
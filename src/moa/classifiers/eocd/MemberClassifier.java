@@ -1,13 +1,9 @@
 package moa.classifiers.eocd;
 
-import java.util.ArrayList;
 import java.util.Random;
-import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
-import com.yahoo.labs.samoa.instances.Attribute;
-import com.yahoo.labs.samoa.instances.DenseInstance;
 import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.Instances;
 
@@ -16,7 +12,10 @@ import moa.core.Utils;
 
 public class MemberClassifier {
 
-	final AbstractClassifier classifier;
+	AbstractClassifier classifier;
+
+	// threads reading the learner, see freeze(): the next training copies the learner and leaves them the frozen one
+	private int numReaders;
 
 	public final int type;
 
@@ -30,6 +29,8 @@ public class MemberClassifier {
 
 	private final SortedSet<Integer> removedAtt;
 
+	private final long[] removedMask;
+
 	private Random classifierRandom;
 
 	private int numAttributes;
@@ -38,6 +39,15 @@ public class MemberClassifier {
 	
 	private double miss;
 
+	private Instances projectedFrom;
+
+	private AttributeProjection projection;
+
+	private Instance projected;
+
+	// the learner keeps trained instances, e.g. the window of kNN, so it must not be given the reused projection
+	private final boolean keepsInstances;
+
 	public MemberClassifier(AbstractClassifier classifier, int hyperSet, Random random, int numAttributes) {
 		this.classifier = classifier;
 		classifier.resetLearning();
@@ -50,12 +60,59 @@ public class MemberClassifier {
 		this.numAttributes = numAttributes;
 		this.removedAtt = new TreeSet<Integer>();
 		startFilter(classifierRandom.nextDouble());
+		this.removedMask = mask(removedAtt);
+		this.keepsInstances = keepsInstances(classifier);
+	}
+
+	// a member restored from a checkpoint
+	MemberClassifier(AbstractClassifier classifier, int hyperSet, SortedSet<Integer> removed, double trained, double miss, Random random,
+			int numAttributes) {
+		this.classifier = classifier;
+		this.hyperSet = hyperSet;
+		this.type = classifier.getClass().getSimpleName().hashCode();
+		this.classifierRandom = random;
+		this.numAttributes = numAttributes;
+		this.removedAtt = new TreeSet<Integer>(removed);
+		this.removedMask = mask(removedAtt);
+		this.trained = trained;
+		this.miss = miss;
+		this.keepsInstances = keepsInstances(classifier);
+	}
+
+	// the lazy learners of MOA store the instances they are trained on
+	private static boolean keepsInstances(AbstractClassifier classifier) {
+		return classifier.getClass().getName().startsWith("moa.classifiers.lazy.");
 	}
 
 	public SortedSet<Integer> removedAttributes() {
 		return new TreeSet<>(removedAtt);
 	}
 
+	public AbstractClassifier learner() {
+		return classifier;
+	}
+
+	double trained() {
+		return trained;
+	}
+
+	double misses() {
+		return miss;
+	}
+
+	// removed attributes as a bitset, shared: must not be modified
+	public long[] removedMask() {
+		return removedMask;
+	}
+
+	private static long[] mask(SortedSet<Integer> attributes) {
+		long[] mask = new long[attributes.isEmpty() ? 0 : (attributes.last() >> 6) + 1];
+		for (int att : attributes) {
+			mask[att >> 6] |= 1L << att;
+		}
+		return mask;
+	}
+
 	private void startFilter(double percent) {
 
 		// use poisson distribution to determine the number of attributes
@@ -70,7 +127,7 @@ public class MemberClassifier {
 	}
 
 	public boolean correctlyClassifies(Instance instance) {
-		Instance inst = filter(instance, removedAtt);
+		Instance inst = filter(instance);
 		return classifier.correctlyClassifies(inst);
 	}
 	
@@ -79,17 +136,38 @@ public class MemberClassifier {
 	}
 
 	public void train(Instance instance) {
+		train(instance, distribution(instance));
+	}
+
+	public void train(Instance instance, double[] votes) {
 		trained += 1;
-		int y = Utils.maxIndex(distribution(instance));
+		int y = Utils.maxIndex(votes);
 		if(y != (int)instance.classValue()) {
 			miss += 1;
 		}
-		Instance inst = filter(instance, removedAtt);
-		classifier.trainOnInstance(inst);
+		synchronized (this) {
+			if (numReaders > 0) { // copy on write, the readers keep the frozen learner
+				classifier = (AbstractClassifier) classifier.copy();
+				numReaders = 0;
+			}
+		}
+		Instance inst = filter(instance);
+		classifier.trainOnInstance(inst != instance && keepsInstances ? inst.copy() : inst);
+	}
+
+	// the learner as of now for another thread, the member trains a copy if trained before the frozen learner is released
+	// must be called on the thread training the member, learners must allow concurrent reads
+	public synchronized Frozen freeze() {
+		numReaders += 1;
+		return new Frozen(classifier);
+	}
+
+	public synchronized boolean isFrozen() {
+		return numReaders > 0;
 	}
 
 	public double[] distribution(Instance instance) {
-		Instance inst = filter(instance, removedAtt);
+		Instance inst = filter(instance);
 		return classifier.getVotesForInstance(inst);
 	}
 
@@ -98,29 +176,60 @@ public class MemberClassifier {
 		return String.format("(%c,%d,%s,%f)", classifier.getClass().getSimpleName().charAt(0), hyperSet, removedAtt.toString(), weight);
 	}
 
-	private Instance filter(Instance _instance, Set<Integer> remove) {
-		if (remove.isEmpty()) {
-			return _instance;
+	// a learner read by another thread, with its own projection of the instances
+	public class Frozen {
+
+		public final AbstractClassifier learner;
+
+		private boolean released;
+
+		private Instances projectedFrom;
+
+		private AttributeProjection projection;
+
+		private Instance projected;
+
+		private Frozen(AbstractClassifier learner) {
+			this.learner = learner;
+		}
+
+		public MemberClassifier member() {
+			return MemberClassifier.this;
 		}
 
-		Instances instances = new Instances(_instance.dataset(), 0);
-		ArrayList<Attribute> attributes = new ArrayList<>();
-		int numAttributes = _instance.numAttributes();
-		double[] values = new double[numAttributes - remove.size()];
-		for (int i = 0, count = 0; i < numAttributes; i++) {
-			if (!remove.contains(i)) {
-				values[count++] = _instance.value(i);
-				// Attribute att = cloneAttribute(instances.attribute(i));
-				Attribute att = instances.attribute(i);
-				attributes.add(att);
+		public double[] distribution(Instance instance) {
+			Instance inst = instance;
+			if (!removedAtt.isEmpty()) {
+				if (projection == null || projectedFrom != instance.dataset()) {
+					projectedFrom = instance.dataset();
+					projection = AttributeProjection.of(projectedFrom, removedAtt);
+					projected = projection.newInstance();
+				}
+				inst = projection.project(instance, projected);
 			}
+			return learner.getVotesForInstance(inst);
 		}
 
-		Instances removedAttributes = new Instances("", attributes, 1);
-		removedAttributes.setClassIndex(removedAttributes.numAttributes() - 1);
+		// the learner must not be read anymore, the member trains it again without copying
+		public void release() {
+			synchronized (MemberClassifier.this) {
+				if (!released && learner == classifier) {
+					numReaders -= 1;
+				}
+				released = true;
+			}
+		}
+	}
 
-		Instance instance = new DenseInstance(1.0, values);
-		instance.setDataset(removedAttributes);
-		return instance;
+	private Instance filter(Instance instance) {
+		if (removedAtt.isEmpty()) {
+			return instance;
+		}
+		if (projection == null || projectedFrom != instance.dataset()) {
+			projectedFrom = instance.dataset();
+			projection = AttributeProjection.of(projectedFrom, removedAtt);
+			projected = projection.newInstance();
+		}
+		return projection.project(instance, projected);
 	}
 }
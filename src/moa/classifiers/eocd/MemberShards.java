@@ -0,0 +1,169 @@
+package moa.classifiers.eocd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.IntConsumer;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+// member slots partitioned over long-lived worker threads, slot i belongs to shard i % numShards
+// the caller waits for every phase, so members are never used by the caller and a worker at the same time
+public class MemberShards {
+
+	private final Worker[] workers;
+
+	private final int batchSize;
+
+	// training deferred to the end of the micro-batch
+	private final List<Instance> batch = new ArrayList<>();
+	private final List<MemberClassifier[]> batchMembers = new ArrayList<>();
+	private final List<double[][]> batchVotes = new ArrayList<>();
+
+	private volatile Throwable failure;
+
+	public MemberShards(int numShards, int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+		workers = new Worker[numShards];
+		for (int s = 0; s < numShards; s++) {
+			workers[s] = new Worker(s);
+		}
+	}
+
+	public int numShards() {
+		return workers.length;
+	}
+
+	// votes of the active and hidden members not voted yet
+	public void predict(MemberClassifier[] members, Instance inst, double[][] votes, boolean[] voted) {
+		run(shard -> {
+			for (int i = shard; i < members.length; i += workers.length) {
+				if (!voted[i] && (members[i].isActive || members[i].isHidden)) {
+					votes[i] = members[i].distribution(inst);
+					voted[i] = true;
+				}
+			}
+		});
+	}
+
+	// members[i] is trained with votes[i], null members are not trained
+	public void train(Instance inst, MemberClassifier[] members, double[][] votes) {
+		batch.add(inst);
+		batchMembers.add(members);
+		batchVotes.add(votes);
+		if (batch.size() >= batchSize) {
+			flush();
+		}
+	}
+
+	// each shard trains its members on the pending instances in arrival order
+	public void flush() {
+		if (batch.isEmpty()) {
+			return;
+		}
+		run(shard -> {
+			for (int b = 0; b < batch.size(); b++) {
+				MemberClassifier[] members = batchMembers.get(b);
+				double[][] votes = batchVotes.get(b);
+				for (int i = shard; i < members.length; i += workers.length) {
+					if (members[i] != null) {
+						members[i].train(batch.get(b), votes[i]);
+					}
+				}
+			}
+		});
+		clear();
+	}
+
+	public boolean hasPending() {
+		return !batch.isEmpty();
+	}
+
+	public void clear() {
+		batch.clear();
+		batchMembers.clear();
+		batchVotes.clear();
+	}
+
+	public void shutdown() {
+		clear();
+		for (Worker worker : workers) {
+			worker.thread.interrupt();
+		}
+	}
+
+	private void run(IntConsumer task) {
+		CountDownLatch done = new CountDownLatch(workers.length);
+		for (Worker worker : workers) {
+			worker.submit(() -> {
+				try {
+					task.accept(worker.shard);
+				} catch (RuntimeException | Error e) {
+					failure = e;
+				} finally {
+					done.countDown();
+				}
+			});
+		}
+		boolean interrupted = false;
+		while (done.getCount() > 0) {
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		Throwable e = failure;
+		if (e != null) {
+			failure = null;
+			throw new RuntimeException("Member shard failed", e);
+		}
+	}
+
+	private static class Worker implements Runnable {
+
+		final int shard;
+
+		final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(2);
+
+		final Thread thread;
+
+		Worker(int shard) {
+			this.shard = shard;
+			thread = new Thread(this, "eocd-shard-" + shard);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		void submit(Runnable task) {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					queue.put(task);
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					queue.take().run();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package moa.classifiers.eocd;
+
+// immutable outcome of an optimization: the members it was computed for and their new weights
+public final class OptimizationResult {
+
+	public final int id;
+
+	private final MemberClassifier[] members;
+
+	private final double[] weights;
+
+	public final OptimizationStats stats;
+
+	public OptimizationResult(int id, MemberClassifier[] members, double[] weights, OptimizationStats stats) {
+		this.id = id;
+		this.members = members.clone();
+		this.weights = weights.clone();
+		this.stats = stats;
+	}
+
+	public int size() {
+		return members.length;
+	}
+
+	public MemberClassifier member(int index) {
+		return members[index];
+	}
+
+	public double weight(int index) {
+		return weights[index];
+	}
+}
@@ -0,0 +1,178 @@
+package moa.classifiers.eocd;
+
+// decides when an optimization starts and its budget, from the measured stream and optimization speeds
+// triggers pending or arriving while an optimization runs are coalesced into one optimization
+// with a load factor, a run gets that fraction of the time the stream takes to replace the buffer:
+// of the whole time when running in the background, of the idle time of the stream thread otherwise
+// a trigger deferred for the whole horizon runs anyway with MIN_EVALUATIONS, which also measures the cost of an evaluation again
+public class OptimizationScheduler {
+
+	public static final int MIN_EVALUATIONS = 100;
+
+	private static final double ALPHA = 0.05; // weight of a new sample in the moving averages
+
+	private final double loadFactor;
+
+	private final int coalesceInstances;
+
+	private final double maxSeconds;
+
+	private final int maxEvaluations;
+
+	// exponential moving averages in nanoseconds, NaN until measured
+	private double arrivalNanos = Double.NaN; // between two instances
+	private double processingNanos = Double.NaN; // stream thread time per instance
+	private double evaluationNanos = Double.NaN; // optimization time per evaluation
+
+	private long lastArrival = -1;
+	private long numInstances;
+
+	private int pendingTrigger = -1;
+	private long pendingSince;
+
+	private int numTriggers;
+	private int numCoalesced;
+	private int numDeferred;
+	private int numScheduled;
+
+	private double timeBudget;
+	private int evaluationBudget;
+
+	// loadFactor 0 gives every optimization the maximum budget
+	public OptimizationScheduler(double loadFactor, int coalesceInstances, double maxSeconds, int maxEvaluations) {
+		this.loadFactor = loadFactor;
+		this.coalesceInstances = coalesceInstances;
+		this.maxSeconds = maxSeconds;
+		this.maxEvaluations = maxEvaluations;
+		this.timeBudget = maxSeconds;
+		this.evaluationBudget = maxEvaluations;
+	}
+
+	public void arrived(long nanoTime) {
+		numInstances += 1;
+		if (lastArrival >= 0) {
+			arrivalNanos = average(arrivalNanos, nanoTime - lastArrival);
+		}
+		lastArrival = nanoTime;
+	}
+
+	// the stream thread was busy with something else than the stream, e.g. an optimization, since the last arrival
+	public void skipArrival() {
+		lastArrival = -1;
+	}
+
+	public void processed(long nanos) {
+		processingNanos = average(processingNanos, nanos);
+	}
+
+	// evaluationMillis is the time of the evaluations only, without the member votes
+	public void optimized(int evaluations, double evaluationMillis) {
+		if (evaluations > 0) {
+			evaluationNanos = average(evaluationNanos, evaluationMillis * 1e6 / evaluations);
+		}
+	}
+
+	// trigger is an index in OptimizationStats.TRIGGERS, drift wins over frequency when coalesced
+	public void trigger(int trigger) {
+		numTriggers += 1;
+		if (pendingTrigger == -1) {
+			pendingTrigger = trigger;
+			pendingSince = numInstances;
+		} else {
+			numCoalesced += 1;
+			pendingTrigger = Math.min(pendingTrigger, trigger);
+		}
+	}
+
+	// the trigger of the optimization to start now, -1 for none
+	// horizon is the number of instances until the result is outdated, e.g. the buffer size
+	public int due(boolean running, int horizon, boolean background) {
+		if (pendingTrigger == -1) {
+			return -1;
+		}
+		if (running) { // the running optimization stands for the trigger
+			numCoalesced += 1;
+			pendingTrigger = -1;
+			return -1;
+		}
+		if (numInstances - pendingSince < coalesceInstances) {
+			return -1;
+		}
+		if (!plan(horizon, background)) {
+			if (numInstances - pendingSince < coalesceInstances + (long) horizon) {
+				numDeferred += 1;
+				return -1;
+			}
+			timeBudget = maxSeconds;
+			evaluationBudget = Math.min(maxEvaluations, MIN_EVALUATIONS);
+		}
+		int trigger = pendingTrigger;
+		pendingTrigger = -1;
+		return trigger;
+	}
+
+	// an optimization was started for the trigger returned by due()
+	public void started() {
+		numScheduled += 1;
+	}
+
+	// false if the budget does not afford MIN_EVALUATIONS
+	private boolean plan(int horizon, boolean background) {
+		if (loadFactor <= 0 || Double.isNaN(arrivalNanos)) {
+			timeBudget = maxSeconds;
+			evaluationBudget = maxEvaluations;
+			return true;
+		}
+		double idleNanos = background || Double.isNaN(processingNanos) ? arrivalNanos : Math.max(0, arrivalNanos - processingNanos);
+		double nanos = loadFactor * horizon * idleNanos;
+		if (Double.isNaN(evaluationNanos)) { // the first optimization measures the cost of an evaluation
+			evaluationBudget = maxEvaluations;
+		} else if (nanos < MIN_EVALUATIONS * evaluationNanos) {
+			return false;
+		} else {
+			evaluationBudget = (int) Math.min(maxEvaluations, nanos / evaluationNanos);
+		}
+		timeBudget = Math.min(maxSeconds, nanos / 1e9);
+		return true;
+	}
+
+	private static double average(double average, double sample) {
+		return Double.isNaN(average) ? sample : average + ALPHA * (sample - average);
+	}
+
+	public double timeBudget() {
+		return timeBudget;
+	}
+
+	public int evaluationBudget() {
+		return evaluationBudget;
+	}
+
+	public double arrivalRate() {
+		return Double.isNaN(arrivalNanos) || arrivalNanos == 0 ? 0.0 : 1e9 / arrivalNanos;
+	}
+
+	public double processingMillis() {
+		return Double.isNaN(processingNanos) ? 0.0 : processingNanos / 1e6;
+	}
+
+	public double evaluationMillis() {
+		return Double.isNaN(evaluationNanos) ? 0.0 : evaluationNanos / 1e6;
+	}
+
+	public int numTriggers() {
+		return numTriggers;
+	}
+
+	public int numCoalesced() {
+		return numCoalesced;
+	}
+
+	public int numDeferred() {
+		return numDeferred;
+	}
+
+	public int numScheduled() {
+		return numScheduled;
+	}
+}
@@ -0,0 +1,107 @@
+package moa.classifiers.eocd;
+
+import java.util.Locale;
+
+// statistics of one optimization, the member counts are set when the result is applied to the ensemble
+public class OptimizationStats {
+
+	public static final String[] TRIGGERS = { "drift", "frequency" };
+
+	public final int id;
+
+	public final int trigger; // index in TRIGGERS
+
+	public final double instancesSeen;
+
+	public final String optimizer;
+
+	public final int bufferSize;
+
+	public final int evaluations;
+
+	public final int generations;
+
+	public final double wallMillis;
+
+	public final double votesMillis; // part of wallMillis computing the member votes, before the evaluations
+
+	public final double bestCost;
+
+	public final double[] trajectory;
+
+	public final int stopReason; // index in StopCondition.STOP_REASONS
+
+	public final int numRejected;
+
+	private int numActive = -1;
+
+	private int numHidden = -1;
+
+	public OptimizationStats(int id, int trigger, double instancesSeen, WeightOptimizer optimizer, double votesMillis, double wallMillis) {
+		this.id = id;
+		this.trigger = trigger;
+		this.instancesSeen = instancesSeen;
+		this.optimizer = optimizer.getClass().getSimpleName();
+		this.bufferSize = optimizer.problem().numInstances();
+		this.evaluations = optimizer.stopCondition().performedEvaluations();
+		this.trajectory = optimizer.costTrajectory();
+		this.generations = Math.max(0, trajectory.length - 1);
+		this.wallMillis = wallMillis;
+		this.votesMillis = votesMillis;
+		this.bestCost = optimizer.bestCost();
+		this.stopReason = optimizer.isCancelled() ? StopCondition.STOP_REASONS.length - 1 : optimizer.stopCondition().stopReason();
+		this.numRejected = optimizer.problem().numRejected();
+	}
+
+	public void applied(int numActive, int numHidden) {
+		this.numActive = numActive;
+		this.numHidden = numHidden;
+	}
+
+	public int numActive() {
+		return numActive;
+	}
+
+	public int numHidden() {
+		return numHidden;
+	}
+
+	public double initialCost() {
+		return trajectory.length > 0 ? trajectory[0] : bestCost;
+	}
+
+	// one line of the optimization log
+	public String toJson() {
+		StringBuilder str = new StringBuilder(256 + trajectory.length * 8);
+		str.append("{\"id\":").append(id);
+		str.append(",\"trigger\":\"").append(TRIGGERS[trigger]).append('"');
+		str.append(",\"instancesSeen\":").append(format(instancesSeen));
+		str.append(",\"optimizer\":\"").append(optimizer).append('"');
+		str.append(",\"bufferSize\":").append(bufferSize);
+		str.append(",\"evaluations\":").append(evaluations);
+		str.append(",\"generations\":").append(generations);
+		str.append(",\"wallMillis\":").append(format(wallMillis));
+		str.append(",\"votesMillis\":").append(format(votesMillis));
+		str.append(",\"bestCost\":").append(format(bestCost));
+		str.append(",\"trajectory\":[");
+		for (int i = 0; i < trajectory.length; i++) {
+			str.append(i > 0 ? "," : "").append(format(trajectory[i]));
+		}
+		str.append("]");
+		str.append(",\"stopReason\":\"").append(StopCondition.STOP_REASONS[stopReason]).append('"');
+		str.append(",\"rejected\":").append(numRejected);
+		str.append(",\"active\":").append(numActive);
+		str.append(",\"hidden\":").append(numHidden);
+		str.append("}");
+		return str.toString();
+	}
+
+	private static String format(double value) {
+		return Double.isFinite(value) ? String.format(Locale.ROOT, "%.6g", value) : "null";
+	}
+
+	@Override
+	public String toString() {
+		return toJson();
+	}
+}
@@ -1,21 +1,22 @@
 package moa.classifiers.eocd;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.yahoo.labs.samoa.instances.Instance;
-import com.yahoo.labs.samoa.instances.Instances;
 
 import moa.classifiers.bayes.NaiveBayes;
 import moa.classifiers.functions.Perceptron;
 import moa.classifiers.functions.SGD;
 import moa.classifiers.trees.HoeffdingTree;
-import moa.core.DoubleVector;
-import moa.core.Utils;
 
 public class Problem {
 	
@@ -27,25 +28,63 @@ public class Problem {
 
 	public int numMaxConfigurations = 30;
 
-	private Instances instances;
+	private InstanceWindow.Snapshot instances;
 
 	public MemberClassifier[] classifiers;
+
+	// learners of the encoded members as of the construction, the members train copies until their votes are computed
+	private MemberClassifier.Frozen[] frozen;
+	private final AtomicBoolean claimed = new AtomicBoolean(); // by computeVotes() or discard()
 	
 	private Set<Integer> activeClassifiers;
 	
 	private int [] solveToIndex;
 
+	private int numInstances;
+
+	private int numClasses;
+
+	// normalized votes of the members: instance x member x class
+	private double[] votes;
+
+	private int[] labels;
+
+	// incremental updates accumulate rounding errors, the scores are recomputed after this many
+	private static final int MAX_DELTAS = 32;
+
+	// scores this close to the top one after an incremental update may be an exact tie, the instance is scored again
+	private static final double TIE_EPSILON = 1e-9;
+
+	private static final int MIN_CHUNK = 32;
+
+	// bound of the vote tensor (256 MB), also keeps its int offsets from overflowing: larger windows are scored on their most recent instances
+	public static final int MAX_VOTES = 1 << 25;
+
+	// order of the instances when scoring
+	private int[] order;
+
+	private double racingDelta;
+
+	private final AtomicInteger numRejected = new AtomicInteger();
+
 	public List<EnsembleMemberConfiguration> configurations;
 
 	// each member has two values: (active : boolean, weight : real)
-	public Problem(MemberClassifier[] classifiers, Instances instances, List<EnsembleMemberConfiguration> configurations) {
+	// members and configurations are copied, the optimization may run while the stream replaces members
+	// must be called on the thread training the members, computeVotes() must be called before evaluating solves
+	public Problem(MemberClassifier[] classifiers, InstanceWindow.Snapshot instances, List<EnsembleMemberConfiguration> configurations) {
 		this.sizeEncode = numActiveClassifiers(classifiers);
 		this.numObjectives = 1;
 		
-		this.configurations = configurations;
-		this.classifiers = classifiers;
+		this.configurations = new ArrayList<>(configurations);
+		this.classifiers = classifiers.clone();
 		this.instances = instances;
 		initClassifiers();
+		initSize();
+		frozen = new MemberClassifier.Frozen[sizeEncode];
+		for (int m = 0; m < sizeEncode; m++) {
+			frozen[m] = this.classifiers[solveToIndex[m]].freeze();
+		}
 	}
 	
 	public String createRepresentation (Solve solve) {
@@ -87,47 +126,272 @@ public class Problem {
 		}
 	}
 	
+	private void initSize() {
+		int size = instances == null ? 0 : instances.numInstances();
+		numClasses = instances == null ? 0 : instances.numClasses();
+		long instanceVotes = (long) Math.max(1, sizeEncode) * Math.max(1, numClasses);
+		numInstances = (int) Math.min(size, MAX_VOTES / instanceVotes);
+		order = new int[numInstances];
+		for (int n = 0; n < numInstances; n++) {
+			order[n] = n;
+		}
+	}
+
+	// member predictions do not change during the optimization, they are computed once from the frozen learners
+	// runs on the optimization thread while the members keep training, see MemberClassifier.freeze()
+	// false if the problem was discarded, its solves must not be evaluated
+	public boolean computeVotes() {
+		if (!claimed.compareAndSet(false, true)) {
+			return votes != null;
+		}
+		try {
+			int first = (instances == null ? 0 : instances.numInstances()) - numInstances;
+			Instance[] insts = new Instance[numInstances];
+			double[] window = new double[numInstances * sizeEncode * numClasses];
+			labels = new int[numInstances];
+			for (int n = 0; n < numInstances; n++) {
+				insts[n] = instances.instance(first + n);
+				labels[n] = (int) insts[n].classValue();
+			}
+			for (int m = 0; m < sizeEncode; m++) {
+				for (int n = 0; n < numInstances; n++) {
+					double[] vote = frozen[m].distribution(insts[n]);
+					int length = Math.min(vote.length, numClasses);
+					double sum = 0;
+					for (int c = 0; c < length; c++) {
+						sum += vote[c];
+					}
+					if (sum > 0.0) {
+						int offset = (n * sizeEncode + m) * numClasses;
+						double scale = 1.0 / sum; // as VoteCombiner
+						for (int c = 0; c < length; c++) {
+							window[offset + c] = vote[c] * scale;
+						}
+					}
+				}
+				frozen[m].release();
+			}
+			votes = window;
+			return true;
+		} finally {
+			release();
+		}
+	}
+
+	// releases the frozen learners unless computeVotes() is reading them, e.g. when the optimization is cancelled
+	public void discard() {
+		if (claimed.compareAndSet(false, true)) {
+			release();
+		}
+	}
+
+	private void release() {
+		for (MemberClassifier.Frozen learner : frozen) {
+			learner.release();
+		}
+	}
+
 	public Set<Integer> activeClassifiers() {
 		return activeClassifiers;
 	}
 
 	public void evaluate(Solve solve) {
-		double[] weights = getWeights(solve);
+		evaluate(solve, Double.POSITIVE_INFINITY);
+	}
+
+	// the scores are updated only for the genes changed since the last evaluation of the solve
+	// with racing, the instances are scored in chunks and the solve is rejected once it can not beat the elite cost
+	public void evaluate(Solve solve, double eliteCost) {
+		double[] weights = new double[sizeEncode];
+		for (int m = 0; m < sizeEncode; m++) {
+			weights[m] = solve.weight(m);
+		}
+		int length = numInstances * numClasses;
+		double[] scores = solve.scores;
+		int[] changed = new int[sizeEncode];
+		int numChanged = 0;
+		boolean full = scores == null || scores.length != length || solve.numDeltas >= MAX_DELTAS;
+		for (int m = 0; m < sizeEncode && !full; m++) {
+			if (Double.compare(weights[m], solve.scoredWeights[m]) != 0) {
+				changed[numChanged++] = m;
+			}
+		}
+		full = full || numChanged > sizeEncode / 2;
+		if (full) {
+			scores = scores != null && scores.length == length ? scores : new double[length];
+		}
+
+		boolean racing = racingDelta > 0 && eliteCost < 1.0;
+		int chunk = racing ? Math.max(MIN_CHUNK, numInstances / 10) : numInstances;
+		// the bound is checked after every chunk but the last, union bound over the checks
+		int numChecks = Math.max(1, (numInstances + chunk - 1) / chunk - 1);
+		double checkDelta = racingDelta / numChecks;
 		double error = 0;
-		try {
-			for (int i = 0; i < instances.numInstances(); i++) {
-				Instance inst = instances.get(i);
-				int y = Utils.maxIndex(getVotesForInstance(inst, weights));
-				int real = (int) inst.classValue();
-				if (y != real) {
+		int scored = 0;
+		while (scored < numInstances) {
+			int end = Math.min(numInstances, scored + chunk);
+			for (int k = scored; k < end; k++) {
+				int n = order[k];
+				int y;
+				if (full) {
+					score(scores, n, weights);
+					y = maxIndex(scores, n * numClasses, numClasses);
+				} else {
+					update(scores, n, changed, numChanged, weights, solve.scoredWeights);
+					y = maxIndex(scores, n * numClasses, numClasses);
+					if (isTie(scores, n * numClasses, numClasses, y)) { // the rounding errors of the updates must not break the tie
+						score(scores, n, weights);
+						y = maxIndex(scores, n * numClasses, numClasses);
+					}
+				}
+				if (y != labels[n]) {
 					error += 1;
 				}
 			}
-			error = error / instances.numInstances();
-		} catch (Exception e) {
-			error = 1.0;
-			System.err.println("Evaluation ERROR!!!" + solve);
+			scored = end;
+			if (racing && scored < numInstances && reject(error, scored, eliteCost, checkDelta)) {
+				// the scores of the remaining instances are stale
+				solve.scores = null;
+				solve.scoredWeights = null;
+				solve.numDeltas = 0;
+				// the error on the sample does not compete with the full window costs: a rejected solve is worse than the elite
+				solve.cost(Math.max(error / scored, Math.nextUp(eliteCost)));
+				numRejected.incrementAndGet();
+				return;
+			}
 		}
+		solve.numDeltas = full ? 0 : solve.numDeltas + (numChanged > 0 ? 1 : 0);
+		solve.scores = scores;
+		solve.scoredWeights = weights;
+
+		error = error / numInstances;
 		solve.cost(error);
+		assert full || error == cost(weights) : "Incremental cost " + error + " differs from the full cost " + cost(weights);
 	}
 
-	public double[] getVotesForInstance(Instance inst, double[] weights) {
-		// use only active classifiers
-		DoubleVector combinedVote = new DoubleVector();
-		Set <Integer> active = activeClassifiers();
-		for (int i = 0; i < active.size(); i++) {
-			if (weights[i] > 0) {
-				DoubleVector vote = new DoubleVector(classifiers[solveToIndex[i]].distribution(inst));
-				if (vote.sumOfValues() > 0.0) {
-					vote.normalize();
-					vote.scaleValues(weights[i]);
-					combinedVote.addValues(vote);
+	private void score(double[] scores, int n, double[] weights) {
+		Arrays.fill(scores, n * numClasses, (n + 1) * numClasses, 0.0);
+		int offset = n * sizeEncode * numClasses;
+		for (int m = 0; m < sizeEncode; m++) {
+			double weight = weights[m];
+			if (weight > 0) {
+				int base = offset + m * numClasses;
+				for (int c = 0; c < numClasses; c++) {
+					scores[n * numClasses + c] += votes[base + c] * weight;
 				}
 			}
 		}
-		return combinedVote.getArrayRef();
 	}
-	
+
+	private void update(double[] scores, int n, int[] changed, int numChanged, double[] weights, double[] scoredWeights) {
+		for (int k = 0; k < numChanged; k++) {
+			int m = changed[k];
+			double delta = weights[m] - scoredWeights[m];
+			int base = (n * sizeEncode + m) * numClasses;
+			for (int c = 0; c < numClasses; c++) {
+				scores[n * numClasses + c] += votes[base + c] * delta;
+			}
+		}
+	}
+
+	// the final error is at least errors / numInstances, and with probability 1 - delta (Hoeffding)
+	// at least the error on the scored sample minus epsilon
+	private boolean reject(double errors, int scored, double eliteCost, double delta) {
+		if (errors / numInstances > eliteCost) {
+			return true;
+		}
+		double epsilon = Math.sqrt(Math.log(1.0 / delta) / (2.0 * scored));
+		return errors / scored - epsilon > eliteCost;
+	}
+
+	// racing scores the instances in a random order, so every chunk is a sample of the window
+	public void setRacing(double delta, Random random) {
+		racingDelta = delta;
+		if (delta > 0) {
+			for (int i = numInstances - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int swap = order[i];
+				order[i] = order[j];
+				order[j] = swap;
+			}
+		}
+	}
+
+	// error on the window of weights in encoding order, without racing and caching
+	public double cost(double[] weights) {
+		double[] scores = new double[numClasses];
+		double error = 0;
+		for (int n = 0; n < numInstances; n++) {
+			Arrays.fill(scores, 0.0);
+			int offset = n * sizeEncode * numClasses;
+			for (int m = 0; m < sizeEncode; m++) {
+				if (weights[m] > 0) {
+					int base = offset + m * numClasses;
+					for (int c = 0; c < numClasses; c++) {
+						scores[c] += votes[base + c] * weights[m];
+					}
+				}
+			}
+			if (maxIndex(scores, 0, numClasses) != labels[n]) {
+				error += 1;
+			}
+		}
+		return error / numInstances;
+	}
+
+	// weights in encoding order to weights by member index
+	public double[] toMemberWeights(double[] weights) {
+		double[] memberWeights = new double[classifiers.length];
+		for (int m = 0; m < sizeEncode; m++) {
+			memberWeights[solveToIndex[m]] = weights[m];
+		}
+		return memberWeights;
+	}
+
+	int numInstances() {
+		return numInstances;
+	}
+
+	int numClasses() {
+		return numClasses;
+	}
+
+	// normalized member votes, instance x member x class
+	double[] votes() {
+		return votes;
+	}
+
+	int[] labels() {
+		return labels;
+	}
+
+	public int numRejected() {
+		return numRejected.get();
+	}
+
+	// another score within TIE_EPSILON of the score of maxIndex
+	private static boolean isTie(double[] scores, int offset, int length, int maxIndex) {
+		double max = scores[offset + maxIndex];
+		double bound = max - TIE_EPSILON * Math.max(1.0, Math.abs(max));
+		for (int c = 0; c < length; c++) {
+			if (c != maxIndex && scores[offset + c] >= bound) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// as Utils.maxIndex on scores[offset, offset + length)
+	private static int maxIndex(double[] scores, int offset, int length) {
+		int maxIndex = 0;
+		for (int c = 1; c < length; c++) {
+			if (scores[offset + c] > scores[offset + maxIndex]) {
+				maxIndex = c;
+			}
+		}
+		return maxIndex;
+	}
+
 	public void setWeight (Solve _solve, int member, double weight) {
 		Solve solve = (Solve) _solve;
 		int index = 0;
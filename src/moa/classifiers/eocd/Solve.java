@@ -14,6 +14,11 @@ public class Solve implements Comparable<Solve> {
 	private final double[] objective;
 	private boolean evaluated;
 
+	// class scores of each buffered instance for the weights last scored, updated by Problem.evaluate
+	double[] scores;
+	double[] scoredWeights;
+	int numDeltas;
+
 	public Solve(Problem problem) {
 		this.problem = problem;
 		objective = new double[problem.numObjectives];
@@ -163,6 +168,14 @@ public class Solve implements Comparable<Solve> {
 		System.arraycopy(solve.encode, 0, encode, 0, encode.length);
 		System.arraycopy(solve.objectives(), 0, objectives(), 0, solve.numObjectives());
 		evaluated(solve.evaluated());
+		copyScores(solve);
+	}
+
+	// the scores of a similar solve, only the genes that differ are rescored
+	public void copyScores(Solve solve) {
+		scores = solve.scores == null ? null : solve.scores.clone();
+		scoredWeights = solve.scoredWeights == null ? null : solve.scoredWeights.clone();
+		numDeltas = solve.numDeltas;
 	}
 
 	public boolean equalsEncode(Solve solve) {
@@ -32,23 +32,34 @@ public class StopCondition implements Serializable {
 		}
 	}
 
+	public static final String[] STOP_REASONS = { "running", "evaluations", "iterations", "no improvement", "time", "stopped" };
+
 	private SingleCondition evals;
 	private SingleCondition steps;
 	private SingleCondition updts;
 	private SingleCondition times; // in milliseconds
 
-	private boolean isRunning;
-	private long startTime;
+	private volatile boolean isRunning;
+	private long startTime; // System.nanoTime() at start
 	private final Events call = new Events();
 
 	public StopCondition(int minEvals, int maxEvals, int minSteps, int maxSteps, int maxNoUpdt, int minSecs, int maxSecs) {
+		this(minEvals, maxEvals, minSteps, maxSteps, maxNoUpdt, (double) minSecs, (double) maxSecs);
+	}
+
+	// seconds may be fractional, the time is tracked in milliseconds
+	public StopCondition(int minEvals, int maxEvals, int minSteps, int maxSteps, int maxNoUpdt, double minSecs, double maxSecs) {
 		assert minEvals >= 0;
 		assert minSteps >= 0;
 		assert minSecs >= 0;
 		evals = new SingleCondition(minEvals, maxEvals == -1 ? Integer.MAX_VALUE : maxEvals, call);
 		steps = new SingleCondition(minSteps, maxSteps == -1 ? Integer.MAX_VALUE : maxSteps, call);
 		updts = new SingleCondition(0, maxNoUpdt == -1 ? Integer.MAX_VALUE : maxNoUpdt, call);
-		times = new SingleCondition(minSecs * 1000, maxSecs == -1 ? Integer.MAX_VALUE : maxSecs * 1000, call);
+		times = new SingleCondition(toMillis(minSecs), maxSecs == -1 ? Integer.MAX_VALUE : toMillis(maxSecs), call);
+	}
+
+	private static int toMillis(double seconds) {
+		return (int) Math.min(Integer.MAX_VALUE, Math.round(seconds * 1000));
 	}
 
 	public StopCondition(int maxEvals, int maxSteps, int maxNoUpdts, int maxTime) {
@@ -67,7 +78,17 @@ public class StopCondition implements Serializable {
 		this(0, -1, 0, -1, -1, 0, maxSeconds);
 	}
 
-	public void reset() {
+	// same bounds, not started
+	public StopCondition copy() {
+		return new StopCondition(evals.minValue, bound(evals), steps.minValue, bound(steps), bound(updts), times.minValue / 1000.0,
+				times.maxValue == Integer.MAX_VALUE ? -1 : times.maxValue / 1000.0);
+	}
+
+	private static int bound(SingleCondition condition) {
+		return condition.maxValue == Integer.MAX_VALUE ? -1 : condition.maxValue;
+	}
+
+	public synchronized void reset() {
 		call.reset();
 		isRunning = false;
 		evals.reset();
@@ -76,45 +97,34 @@ public class StopCondition implements Serializable {
 		times.reset();
 	}
 
-	private void updateTime() {
-		int diffTime = (int) (System.currentTimeMillis() - startTime);
-		times.count(0);
-		times.add(diffTime);
+	// the elapsed time is checked inline, by isRunning, evaluation and iteration
+	private synchronized void updateTime() {
+		if (isRunning) {
+			int diffTime = (int) Math.min(Integer.MAX_VALUE, (System.nanoTime() - startTime) / 1000000L);
+			times.count(0);
+			times.add(diffTime);
+		}
 	}
 
 	public boolean isRunning() {
+		updateTime();
 		return isRunning;
 	}
 
-	public void start() {
+	public synchronized void start() {
 		reset();
-		startTime = System.currentTimeMillis();
+		startTime = System.nanoTime();
 		isRunning = true;
-
-		new Thread() {
-			@Override
-			public void run() {
-				while (!times.maxBound() && isRunning()) {
-					updateTime();
-					try {
-						Thread.sleep(250);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-						break;
-					}
-				}
-			}
-		}.start();
 	}
 
-	public void stop() {
+	public synchronized void stop() {
 		if (isRunning) {
 			updateTime();
 			isRunning = false;
 		}
 	}
 
-	public void update() {
+	public synchronized void update() {
 		if (isRunning) {
 			if (updts.maxBound()) {
 				call.numMaxBound -= 1;
@@ -126,17 +136,35 @@ public class StopCondition implements Serializable {
 		}
 	}
 
-	public void iteration() {
+	public synchronized void iteration() {
 		if (isRunning) {
 			steps.add(1);
 			updts.add(1);
 		}
+		updateTime();
 	}
 
-	public void evaluation() {
+	public synchronized void evaluation() {
 		if (isRunning) {
 			evals.add(1);
 		}
+		updateTime();
+	}
+
+	// index in STOP_REASONS of the bound that stopped the run
+	public synchronized int stopReason() {
+		if (isRunning) {
+			return 0;
+		} else if (evals.maxBound()) {
+			return 1;
+		} else if (steps.maxBound()) {
+			return 2;
+		} else if (updts.maxBound()) {
+			return 3;
+		} else if (times.maxBound()) {
+			return 4;
+		}
+		return 5;
 	}
 
 	public int performedIterationsWhitoutUpdate() {
@@ -155,6 +183,10 @@ public class StopCondition implements Serializable {
 		return times.count() / 1000;
 	}
 
+	public int performedMillis() {
+		return times.count();
+	}
+
 	public int maxAllowedSeconds() {
 		return times.maxValue == Integer.MAX_VALUE ? -1 : times.maxValue / 1000;
 	}
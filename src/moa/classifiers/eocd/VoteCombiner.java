@@ -0,0 +1,43 @@
+package moa.classifiers.eocd;
+
+import java.util.Arrays;
+
+// weighted sum of normalized member votes into a reused array, as DoubleVector normalize, scaleValues and addValues
+public class VoteCombiner {
+
+	private double[] combined;
+
+	private int length;
+
+	public VoteCombiner(int numClasses) {
+		combined = new double[Math.max(numClasses, 1)];
+	}
+
+	public void reset() {
+		Arrays.fill(combined, 0, length, 0.0);
+		length = 0;
+	}
+
+	// votes without positive sum are ignored
+	public void add(double[] vote, double weight) {
+		double sum = 0.0;
+		for (int c = 0; c < vote.length; c++) {
+			sum += vote[c];
+		}
+		if (sum > 0.0) {
+			if (vote.length > combined.length) {
+				combined = Arrays.copyOf(combined, vote.length);
+			}
+			double scale = 1.0 / sum;
+			for (int c = 0; c < vote.length; c++) {
+				combined[c] += vote[c] * scale * weight;
+			}
+			length = Math.max(length, vote.length);
+		}
+	}
+
+	// a copy, the combiner is reused for the next instance
+	public double[] getVotes() {
+		return Arrays.copyOf(combined, length);
+	}
+}
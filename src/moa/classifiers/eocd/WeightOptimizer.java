@@ -0,0 +1,25 @@
+package moa.classifiers.eocd;
+
+// searches the member weights of a problem, run by EnsembleOptimizationForConceptDrift on drift
+public interface WeightOptimizer {
+
+	Problem problem();
+
+	StopCondition stopCondition();
+
+	void execute();
+
+	// weights by member index (as Problem.getWeights), 0 for inactive members, null if nothing was found
+	double[] bestWeights();
+
+	// error on the window of the best weights, 1.0 if nothing was found
+	double bestCost();
+
+	// best cost after each generation or iteration
+	double[] costTrajectory();
+
+	// cooperative cancellation, execute returns soon after
+	void cancel();
+
+	boolean isCancelled();
+}
@@ -0,0 +1,112 @@
+package weka.classifiers.semi;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import weka.core.Instances;
+
+/**
+ * The pairwise euclidian distances of a set of instances (the class attribute,
+ * the last one, is ignored), together with their sorted values so that any
+ * percentile of the distances can be derived without recomputing them. Only the
+ * upper triangle is stored, instances are referenced by their index.
+ */
+public class DistanceMatrix implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int numInstances;
+	private final long fingerprint;
+	private final double[] distances;
+	private final double[] sorted;
+
+	/**
+	 * Computes the distances of all pairs of instances.
+	 *
+	 * @param instances the instances
+	 */
+	public DistanceMatrix(Instances instances) {
+		numInstances = instances.numInstances();
+		double[][] rows = new double[numInstances][];
+		for (int i = 0; i < numInstances; i++) {
+			rows[i] = instances.get(i).toDoubleArray();
+		}
+		fingerprint = fingerprint(rows);
+		distances = new double[(int) ((long) numInstances * (numInstances - 1) / 2)];
+		int k = 0;
+		for (int i = 0; i < numInstances; i++) {
+			for (int j = i + 1; j < numInstances; j++) {
+				distances[k++] = SemiBoost.euclidianDistance(rows[i], rows[j]);
+			}
+		}
+		sorted = distances.clone();
+		Arrays.sort(sorted);
+	}
+
+	public int numInstances() {
+		return numInstances;
+	}
+
+	/**
+	 * Checks whether the distances were computed from the given instances, in the
+	 * same order. The class values are ignored, they may be hidden or relabeled.
+	 *
+	 * @param instances the instances
+	 * @return true if the instances have the attribute values the distances were computed from
+	 */
+	public boolean matches(Instances instances) {
+		if (instances.numInstances() != numInstances) {
+			return false;
+		}
+		double[][] rows = new double[numInstances][];
+		for (int i = 0; i < numInstances; i++) {
+			rows[i] = instances.get(i).toDoubleArray();
+		}
+		return fingerprint(rows) == fingerprint;
+	}
+
+	// hash of the attribute values but the last one, the class
+	private static long fingerprint(double[][] rows) {
+		long hash = rows.length;
+		for (double[] row : rows) {
+			for (int j = 0; j < row.length - 1; j++) {
+				hash = 31 * hash + Double.doubleToLongBits(row[j]);
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the distance between two instances.
+	 *
+	 * @param i the index of the first instance
+	 * @param j the index of the second instance
+	 * @return the distance between the instances
+	 */
+	public double distance(int i, int j) {
+		if (i == j) {
+			return 0.0;
+		}
+		if (i > j) {
+			int t = i;
+			i = j;
+			j = t;
+		}
+		return distances[(int) ((long) i * (2L * numInstances - i - 1) / 2 + (j - i - 1))];
+	}
+
+	/**
+	 * Returns the percentile of the distances over all ordered pairs, including
+	 * the pairs of an instance with itself (n zeros, every other pair twice).
+	 *
+	 * @param p the percentile [0.0,1.0]
+	 * @return the distance at the given percentile
+	 */
+	public double percentile(double p) {
+		long k = (long) (p * numInstances * (double) numInstances);
+		if (k < numInstances || sorted.length == 0) {
+			return 0.0;
+		}
+		return sorted[(int) Math.min((k - numInstances) / 2, sorted.length - 1)];
+	}
+}
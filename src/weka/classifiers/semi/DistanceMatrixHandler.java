@@ -0,0 +1,25 @@
+package weka.classifiers.semi;
+
+/**
+ * Interface for classifiers that can reuse precomputed pairwise distances of
+ * their training instances.
+ */
+public interface DistanceMatrixHandler {
+
+	/**
+	 * Sets the distances of the training instances, indexed in the order the
+	 * instances are given to buildClassifier. Null to compute them when building.
+	 * Distances of other instances are ignored. They are released by
+	 * buildClassifier, so they must be set again before every build.
+	 *
+	 * @param distances the precomputed distances
+	 */
+	void setDistanceMatrix(DistanceMatrix distances);
+
+	/**
+	 * Returns the precomputed distances, if any.
+	 *
+	 * @return the precomputed distances or null
+	 */
+	DistanceMatrix getDistanceMatrix();
+}
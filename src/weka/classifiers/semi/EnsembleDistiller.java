@@ -0,0 +1,182 @@
+package weka.classifiers.semi;
+
+import java.io.Serializable;
+import java.util.Collections;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.J48;
+import weka.core.AdditionalMeasureProducer;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.Utils;
+
+/**
+ * Distills a trained ensemble (teacher) into a single student model for fast
+ * scoring. Every instance of the training pool (labeled and unlabeled) is
+ * relabeled with the soft output of the teacher: one copy per class, weighted
+ * by the probability of the class. The student is trained on these weighted
+ * copies, so it must handle instance weights (e.g. J48, Logistic).
+ */
+public class EnsembleDistiller implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	protected final Classifier student;
+
+	private Classifier model;
+	private double agreement;
+	private int numInstances;
+	private double teacherSize;
+
+	public EnsembleDistiller() {
+		this(new J48());
+	}
+
+	/**
+	 * Creates a distiller.
+	 *
+	 * @param student the student classifier, copied when distilling
+	 */
+	public EnsembleDistiller(Classifier student) {
+		this.student = student;
+	}
+
+	/**
+	 * Trains the student on the soft outputs of the teacher.
+	 *
+	 * @param teacher the trained ensemble
+	 * @param pool the training pool, e.g. the instances the teacher was built on
+	 * @return the trained student, the serving model
+	 * @throws Exception if the student could not be built
+	 */
+	public Classifier distill(Classifier teacher, Instances pool) throws Exception {
+		int numClasses = pool.numClasses();
+		double[][] outputs = new double[pool.numInstances()][];
+		Instances soft = new Instances(pool, pool.numInstances() * numClasses);
+		for (int i = 0; i < pool.numInstances(); i++) {
+			Instance instance = pool.instance(i);
+			outputs[i] = teacherDistribution(teacher, instance);
+			for (int c = 0; c < outputs[i].length; c++) {
+				if (outputs[i][c] > 0) {
+					soft.add(instance);
+					Instance copy = soft.instance(soft.numInstances() - 1);
+					copy.setClassValue(c);
+					copy.setWeight(instance.weight() * outputs[i][c]);
+				}
+			}
+		}
+
+		model = AbstractClassifier.makeCopy(student);
+		model.buildClassifier(soft);
+
+		int agree = 0;
+		for (int i = 0; i < pool.numInstances(); i++) {
+			if ((int) model.classifyInstance(pool.instance(i)) == Utils.maxIndex(outputs[i])) {
+				agree += 1;
+			}
+		}
+		numInstances = pool.numInstances();
+		agreement = numInstances > 0 ? agree / (double) numInstances : 1.0;
+		teacherSize = teacherSize(teacher);
+		return model;
+	}
+
+	/**
+	 * Returns the number of members of the teacher, NaN if it does not report it.
+	 */
+	private static double teacherSize(Classifier teacher) {
+		if (teacher instanceof AdditionalMeasureProducer) {
+			AdditionalMeasureProducer producer = (AdditionalMeasureProducer) teacher;
+			for (String measure : Collections.list(producer.enumerateMeasures())) {
+				if (measure.equals("Num of Classifiers")) {
+					return producer.getMeasure(measure);
+				}
+			}
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Returns the soft output of the teacher. SemiBoost predicts hard labels, its
+	 * margin is mapped to a probability with the logistic function of boosting.
+	 *
+	 * @param teacher the trained ensemble
+	 * @param instance the instance
+	 * @return the class probabilities of the teacher
+	 * @throws Exception if the teacher could not classify the instance
+	 */
+	protected double[] teacherDistribution(Classifier teacher, Instance instance) throws Exception {
+		if (teacher instanceof SemiBoost) {
+			double h = ((SemiBoost) teacher).margin(instance);
+			double p = 1.0 / (1.0 + Math.exp(-2 * h));
+			return new double[] { 1 - p, p };
+		}
+		return teacher.distributionForInstance(instance);
+	}
+
+	/**
+	 * Returns the fraction of the instances on which the student and the teacher
+	 * predict the same class, e.g. on held-out data.
+	 *
+	 * @param teacher the trained ensemble
+	 * @param data the instances
+	 * @return the agreement [0.0,1.0]
+	 * @throws IllegalStateException if no student has been distilled yet
+	 * @throws Exception if an instance could not be classified
+	 */
+	public double agreement(Classifier teacher, Instances data) throws Exception {
+		checkDistilled();
+		int agree = 0;
+		for (Instance instance : data) {
+			if ((int) model.classifyInstance(instance) == Utils.maxIndex(teacherDistribution(teacher, instance))) {
+				agree += 1;
+			}
+		}
+		return data.numInstances() > 0 ? agree / (double) data.numInstances() : 1.0;
+	}
+
+	/**
+	 * Writes the student as the serving model.
+	 *
+	 * @param filename the file to write the model to
+	 * @throws IllegalStateException if no student has been distilled yet
+	 * @throws Exception if the model could not be written
+	 */
+	public void export(String filename) throws Exception {
+		checkDistilled();
+		SerializationHelper.write(filename, model);
+	}
+
+	private void checkDistilled() {
+		if (model == null) {
+			throw new IllegalStateException("EnsembleDistiller: No model distilled yet, call distill() first.");
+		}
+	}
+
+	public Classifier getModel() {
+		return model;
+	}
+
+	public double getAgreement() {
+		return agreement;
+	}
+
+	/**
+	 * Returns the distillation report.
+	 *
+	 * @return the report
+	 */
+	public String toString() {
+		if (model == null) {
+			return "EnsembleDistiller: No model distilled yet.";
+		}
+		String output = "EnsembleDistiller\n\n";
+		output += "Student: " + model.getClass().getName() + "\n";
+		output += "Teacher members: " + teacherSize + "\n";
+		output += "Pool size: " + numInstances + "\n";
+		output += "Agreement with teacher: " + agreement + "\n";
+		return output;
+	}
+}
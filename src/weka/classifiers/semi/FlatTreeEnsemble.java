@@ -0,0 +1,181 @@
+package weka.classifiers.semi;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.j48.C45Split;
+import weka.classifiers.trees.j48.ClassifierSplitModel;
+import weka.classifiers.trees.j48.ClassifierTree;
+import weka.classifiers.trees.j48.Distribution;
+import weka.core.Instances;
+
+/**
+ * A weighted ensemble of binary J48 trees compiled into flat primitive arrays
+ * (split attribute, split point, child offsets, leaf class), evaluated in a
+ * single loop over the attribute values of an instance. Only trees made of
+ * C45Split nodes are supported; instances must not have missing values.
+ */
+public class FlatTreeEnsemble implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int LEAF = -1;
+
+	private static Field rootField;
+
+	private final Instances header;
+
+	private int[] attribute = new int[64];
+	private double[] splitPoint = new double[64];
+	private boolean[] nominal = new boolean[64];
+	private int[] firstChild = new int[64];
+	private int[] leafClass = new int[64];
+	private int numNodes;
+
+	private int[] children = new int[64];
+	private int numChildren;
+
+	private int[] roots = new int[16];
+	private double[] weights = new double[16];
+	private int numTrees;
+
+	private boolean valid = true;
+
+	/**
+	 * Creates an empty ensemble.
+	 *
+	 * @param header the header of the training data
+	 */
+	public FlatTreeEnsemble(Instances header) {
+		this.header = header;
+	}
+
+	/**
+	 * Compiles and adds a trained tree. If the tree can not be compiled the
+	 * ensemble becomes invalid and must not be used anymore.
+	 *
+	 * @param classifier the trained J48
+	 * @param weight the weight of the tree
+	 * @return true if the tree was added
+	 */
+	public boolean add(Classifier classifier, double weight) {
+		ClassifierTree tree = valid ? root(classifier) : null;
+		int root = tree != null ? compile(tree, -1) : -1;
+		if (root == -1) {
+			valid = false;
+			return false;
+		}
+		if (numTrees == roots.length) {
+			roots = Arrays.copyOf(roots, numTrees * 2);
+			weights = Arrays.copyOf(weights, numTrees * 2);
+		}
+		roots[numTrees] = root;
+		weights[numTrees] = weight;
+		numTrees += 1;
+		return true;
+	}
+
+	public boolean isValid() {
+		return valid;
+	}
+
+	public int numTrees() {
+		return numTrees;
+	}
+
+	/**
+	 * Returns the weighted vote of the trees, class 0 votes -1 and class 1 votes +1.
+	 *
+	 * @param row the attribute values of the instance
+	 * @return the weighted vote
+	 */
+	public double margin(double[] row) {
+		double h = 0;
+		for (int t = 0; t < numTrees; t++) {
+			int node = roots[t];
+			int att;
+			while ((att = attribute[node]) != LEAF) {
+				double value = row[att];
+				int branch = nominal[node] ? (int) value : (value <= splitPoint[node] ? 0 : 1);
+				node = children[firstChild[node] + branch];
+			}
+			h += leafClass[node] == 0 ? -weights[t] : weights[t];
+		}
+		return h;
+	}
+
+	/**
+	 * Compiles a subtree, as ClassifierTree.classifyInstance does an empty leaf
+	 * predicts the majority class of its subset in the parent node.
+	 *
+	 * @return the index of the node, -1 if the subtree is not supported
+	 */
+	private int compile(ClassifierTree tree, int emptyClass) {
+		int node = newNode();
+		ClassifierSplitModel model = tree.getLocalModel();
+		if (tree.isLeaf()) {
+			Distribution dist = model.distribution();
+			attribute[node] = LEAF;
+			leafClass[node] = dist.total() > 0 || emptyClass == -1 ? dist.maxClass() : emptyClass;
+			return node;
+		}
+		if (!(model instanceof C45Split)) {
+			return -1;
+		}
+		C45Split split = (C45Split) model;
+		ClassifierTree[] sons = tree.getSons();
+		attribute[node] = split.attIndex();
+		nominal[node] = header.attribute(split.attIndex()).isNominal();
+		splitPoint[node] = split.splitPoint();
+		int first = newChildren(sons.length);
+		firstChild[node] = first;
+		for (int i = 0; i < sons.length; i++) {
+			int child = compile(sons[i], model.distribution().maxClass(i));
+			if (child == -1) {
+				return -1;
+			}
+			children[first + i] = child;
+		}
+		return node;
+	}
+
+	private int newNode() {
+		if (numNodes == attribute.length) {
+			int size = numNodes * 2;
+			attribute = Arrays.copyOf(attribute, size);
+			splitPoint = Arrays.copyOf(splitPoint, size);
+			nominal = Arrays.copyOf(nominal, size);
+			firstChild = Arrays.copyOf(firstChild, size);
+			leafClass = Arrays.copyOf(leafClass, size);
+		}
+		return numNodes++;
+	}
+
+	private int newChildren(int size) {
+		while (numChildren + size > children.length) {
+			children = Arrays.copyOf(children, children.length * 2);
+		}
+		int first = numChildren;
+		numChildren += size;
+		return first;
+	}
+
+	private static ClassifierTree root(Classifier classifier) {
+		if (classifier == null || classifier.getClass() != J48.class) {
+			return null;
+		}
+		try {
+			if (rootField == null) {
+				Field field = J48.class.getDeclaredField("m_root");
+				field.setAccessible(true);
+				rootField = field;
+			}
+			return (ClassifierTree) rootField.get(classifier);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package weka.classifiers.semi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.evaluation.Evaluation;
+import weka.core.Instances;
+import weka.core.OptionHandler;
+
+/**
+ * Evaluates a grid of option values of a semi-supervised classifier on a fixed
+ * train/test split. The pairwise distances of the training instances, and their
+ * sorted values from which every delta percentile is derived, are computed once
+ * and shared by all grid points (see {@link DistanceMatrixHandler}). The grid
+ * points are evaluated concurrently.
+ */
+public class HyperparameterSweep {
+
+	protected final Classifier classifier;
+	protected final Instances train;
+	protected final Instances test;
+	protected final Map<String, double[]> grid = new LinkedHashMap<>();
+
+	protected int numThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Creates a sweep.
+	 *
+	 * @param classifier the classifier, its options are the defaults of every grid point
+	 * @param train the training instances, unlabeled instances with missing class
+	 * @param test the test instances
+	 */
+	public HyperparameterSweep(Classifier classifier, Instances train, Instances test) {
+		this.classifier = classifier;
+		this.train = train;
+		this.test = test;
+	}
+
+	/**
+	 * Adds an option to the grid, e.g. addParameter("-D", 0.05, 0.1, 0.2).
+	 *
+	 * @param option the option flag
+	 * @param values the values of the option
+	 */
+	public void addParameter(String option, double... values) {
+		grid.put(option, values.clone());
+	}
+
+	public void setNumThreads(int value) {
+		numThreads = Math.max(1, value);
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * Evaluates all grid points.
+	 *
+	 * @return the grid points sorted by decreasing accuracy
+	 * @throws Exception if a grid point could not be built or evaluated
+	 */
+	public List<Point> run() throws Exception {
+		DistanceMatrix distances = new DistanceMatrix(train);
+		String[] defaults = ((OptionHandler) classifier).getOptions();
+		List<String[]> points = expand();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, points.size()));
+		try {
+			List<Future<Point>> futures = new ArrayList<>(points.size());
+			for (String[] point : points) {
+				futures.add(executor.submit(() -> evaluate(defaults, point, distances)));
+			}
+			List<Point> results = new ArrayList<>(points.size());
+			for (Future<Point> future : futures) {
+				results.add(get(future));
+			}
+			Collections.sort(results);
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static Point get(Future<Point> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Builds and evaluates the classifier at a grid point.
+	 *
+	 * @param defaults the options of the classifier
+	 * @param point the flags and values of the grid point
+	 * @param distances the shared distances of the training instances
+	 * @return the evaluated grid point
+	 * @throws Exception if the classifier could not be built or evaluated
+	 */
+	protected Point evaluate(String[] defaults, String[] point, DistanceMatrix distances) throws Exception {
+		Classifier copy = AbstractClassifier.makeCopy(classifier);
+		((OptionHandler) copy).setOptions(merge(defaults, point));
+		if (copy instanceof DistanceMatrixHandler) {
+			((DistanceMatrixHandler) copy).setDistanceMatrix(distances);
+		}
+		long start = System.nanoTime();
+		copy.buildClassifier(new Instances(train)); // same order as the distances
+		double buildTime = (System.nanoTime() - start) / 1e9;
+
+		Evaluation eval = new Evaluation(train);
+		eval.evaluateModel(copy, test);
+		return new Point(point, eval.pctCorrect(), buildTime);
+	}
+
+	private List<String[]> expand() {
+		List<String[]> points = new ArrayList<>();
+		points.add(new String[0]);
+		for (Entry<String, double[]> entry : grid.entrySet()) {
+			List<String[]> expanded = new ArrayList<>(points.size() * entry.getValue().length);
+			for (String[] point : points) {
+				for (double value : entry.getValue()) {
+					String[] next = Arrays.copyOf(point, point.length + 2);
+					next[point.length] = entry.getKey();
+					next[point.length + 1] = Double.toString(value);
+					expanded.add(next);
+				}
+			}
+			points = expanded;
+		}
+		return points;
+	}
+
+	/**
+	 * Replaces the values of the flags of the grid point in the default options
+	 * (only before the "--" separating the base classifier options).
+	 */
+	private static String[] merge(String[] defaults, String[] point) {
+		List<String> options = new ArrayList<>(Arrays.asList(defaults));
+		int end = options.indexOf("--");
+		if (end == -1) {
+			end = options.size();
+		}
+		for (int i = 0; i < point.length; i += 2) {
+			int index = options.subList(0, end).indexOf(point[i]);
+			if (index != -1 && index + 1 < end) {
+				options.set(index + 1, point[i + 1]);
+			} else {
+				options.add(0, point[i + 1]);
+				options.add(0, point[i]);
+				end += 2;
+			}
+		}
+		return options.toArray(new String[0]);
+	}
+
+	/**
+	 * An evaluated grid point.
+	 */
+	public static class Point implements Comparable<Point> {
+		public final String[] options;
+		public final double pctCorrect;
+		public final double buildTime;
+
+		public Point(String[] options, double pctCorrect, double buildTime) {
+			this.options = options;
+			this.pctCorrect = pctCorrect;
+			this.buildTime = buildTime;
+		}
+
+		@Override
+		public int compareTo(Point other) {
+			return Double.compare(other.pctCorrect, pctCorrect);
+		}
+
+		public String toString() {
+			return String.format("%s\t%.4f\t%.4fs", String.join(" ", options), pctCorrect, buildTime);
+		}
+	}
+}
@@ -1,17 +1,19 @@
 package weka.classifiers.semi;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
@@ -20,7 +22,6 @@ import java.util.Vector;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.classifiers.RandomizableIteratedSingleClassifierEnhancer;
-import weka.classifiers.evaluation.Evaluation;
 import weka.classifiers.functions.SMO;
 import weka.core.AdditionalMeasureProducer;
 import weka.core.Capabilities;
@@ -37,7 +38,7 @@ import weka.core.TechnicalInformationHandler;
 import weka.core.Utils;
 import weka.core.converters.ArffLoader;
 
-public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhancer implements OptionHandler, TechnicalInformationHandler, AdditionalMeasureProducer {
+public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhancer implements OptionHandler, TechnicalInformationHandler, AdditionalMeasureProducer, DistanceMatrixHandler {
 
 	/**
 	 * Main method for testing this class.
@@ -51,48 +52,31 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 		Instances instances = loader.getDataSet();
 		instances.setClassIndex(instances.numAttributes() - 1);
 
-		Instances test = new Instances(instances, 0);
-		Instances train = new Instances(instances, 0);
-		for (int i = 0; i < 15; i++) {
-			test.add(instances.instance(i));
-			test.add(instances.instance(i + 50));
-			test.add(instances.instance(i + 100));
-		}
-		for (int i = 15; i < 50; i++) {
-			train.add(instances.instance(i));
-			train.add(instances.instance(i + 50));
-			train.add(instances.instance(i + 100));
-		}
-		for (int i = 15; i < train.numInstances(); i++) {
-			train.instance(i).setClassMissing();
-		}
-
-		double acc = 0;
-		for (int i = 0; i < 30; i++) {
-			MultiSemiAdaBoost classifier = new MultiSemiAdaBoost();
-			classifier.setSeed(i);
-			classifier.buildClassifier(new Instances(train));
-			Evaluation eval = new Evaluation(new Instances(train));
-			eval.evaluateModel(classifier, test);
-			acc += eval.pctCorrect();
-			System.out.println(eval.pctCorrect()); //TODO print
-		}
-		System.out.println("AVG " + acc / 30.0);
+		RepeatedExperiment experiment = new RepeatedExperiment(new MultiSemiAdaBoost(), instances, 0.15, 30);
+		experiment.setTestFraction(0.3);
+		System.out.println(experiment.run());
 
 		//runClassifier(new SemiBoost(), argv);
 	}
 
-	private static final long serialVersionUID = 1;
+	private static final long serialVersionUID = 2; // 2: weights and members written by writeObject
 
 	protected double constant1 = -1; // set default #l/#u as -1
 	protected double constant2 = -1;
 	protected double constant3 = -1;
 	protected double percentSampling = 0.15;
 	protected double deltaPercentile = 0.1; // 10 a 20
+	protected double timeBudget = -1; // in seconds, -1 for no limit
 	
-	private List<WeightedClassifier> classifiers;
+	private transient List<WeightedClassifier> classifiers;
 	private double delta;
-	private Instances labeled;
+	private Instances header;
+	private transient DistanceMatrix distances;
+	private transient DistanceMatrix trainingDistances; // while training
+	private transient Map<Instance, Integer> indices; // of the training instances in trainingDistances
+	private List<Double> roundTimes;
+	private double elapsedTime;
+	private boolean budgetExhausted;
 
 	public MultiSemiAdaBoost() {
 		setClassifier(new SMO());
@@ -155,9 +139,11 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 			throw new Exception("A base classifier has not been specified!");
 		}
 
-		Set<Instance> labeled = new HashSet<>();
-		Set<Instance> unlabeled = new HashSet<>();
-		splitInstances(instances, labeled, unlabeled);
+		long start = System.nanoTime();
+		Set<Instance> labeled = new LinkedHashSet<>(); // instances hash by identity, the order must not depend on it
+		Set<Instance> unlabeled = new LinkedHashSet<>();
+		Instances labeledData = splitInstances(instances, labeled, unlabeled);
+		header = new Instances(instances, 0);
 
 		// default or 1
 		if(constant1 == -1)
@@ -168,20 +154,53 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 			constant3 = unlabeled.size() > 0 ? 1.0 / (double) (2.0 * unlabeled.size()) : 0;
 
 		classifiers = new ArrayList<>(getNumIterations());
-		Map<InstancePair, Double> similarities = computeSimilarity(instances);
-
-		Random rand = new Random(getSeed());
-		do {
-			Instances sampled = new Instances(this.labeled);
-			Map<Instance, Confidence> confidence = sampling(sampled, instances, similarities, labeled, unlabeled, rand);
-			WeightedClassifier classifier = new WeightedClassifier();
-			classifier.buildClassifier(sampled);
-			double beta = computeAlpha(classifier, instances.numClasses(), labeled, unlabeled, confidence);
-			if (beta <= 0) {
-				break;
-			}
-			classifiers.add(classifier);
-		} while (classifiers.size() < getNumIterations());
+		roundTimes = new ArrayList<>(getNumIterations());
+		budgetExhausted = false;
+		computeSimilarity(instances);
+
+		try {
+			Random rand = new Random(getSeed());
+			do {
+				if (exceedsTimeBudget(start)) {
+					budgetExhausted = true;
+					break;
+				}
+				long roundStart = System.nanoTime();
+				Instances sampled = new Instances(labeledData);
+				Map<Instance, Confidence> confidence = sampling(sampled, instances, labeled, unlabeled, rand);
+				WeightedClassifier classifier = new WeightedClassifier();
+				classifier.buildClassifier(sampled);
+				double beta = computeAlpha(classifier, instances.numClasses(), labeled, unlabeled, confidence);
+				if (beta <= 0) {
+					break;
+				}
+				classifiers.add(classifier);
+				roundTimes.add((System.nanoTime() - roundStart) / 1e9);
+			} while (classifiers.size() < getNumIterations());
+		} finally {
+			releaseSimilarity();
+		}
+		elapsedTime = (System.nanoTime() - start) / 1e9;
+	}
+
+	/**
+	 * Checks whether the next boosting round would exceed the time budget. The
+	 * cost of a round grows with the ensemble, since the confidences are computed
+	 * with the current ensemble, so the cost of the next round is extrapolated
+	 * linearly from the last two rounds. The first round is always performed.
+	 *
+	 * @param start the time (in nanoseconds) the training started
+	 * @return true if the next round is not expected to finish within the budget
+	 */
+	private boolean exceedsTimeBudget(long start) {
+		if (timeBudget <= 0 || roundTimes.isEmpty()) {
+			return false;
+		}
+		int n = roundTimes.size();
+		double last = roundTimes.get(n - 1);
+		double projected = n > 1 ? Math.max(last, 2 * last - roundTimes.get(n - 2)) : last;
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		return elapsed + projected > timeBudget;
 	}
 
 	private double computeAlpha(WeightedClassifier classifier, int numClasses, Set<Instance> labeled, Set<Instance> unlabeled, Map<Instance, Confidence> mapConfidence) throws Exception {
@@ -220,20 +239,20 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 		return classifier.weight;
 	}
 
-	private Confidence confidence(Instance instance, Map<InstancePair, Double> similarities, Set<Instance> labeled, Set<Instance> unlabeled) throws Exception {
+	private Confidence confidence(Instance instance, Set<Instance> labeled, Set<Instance> unlabeled) throws Exception {
 		int numClasses = instance.numClasses();
 		double[] output = distributionForInstance(instance);
 		double[] pl = new double[output.length];
 		for (Instance inst : labeled) {
 			int out = (int) inst.classValue();
-			double sim = similarities.get(new InstancePair(inst, instance));
+			double sim = similarity(inst, instance);
 			pl[out] += sim * Math.exp(-output[out] / (double) (numClasses - 1.0));
 		}
 		double[] pu = new double[numClasses];
 		double mul = Math.exp(1.0 / (double) (numClasses - 1.0));
 		for (Instance inst : unlabeled) {
 			double[] joutput = distributionForInstance(inst);
-			double sim = similarities.get(new InstancePair(inst, instance));
+			double sim = similarity(inst, instance);
 			sim = sim * mul;
 			for (int k = 0; k < numClasses; k++) {
 				pu[k] += sim * Math.exp((joutput[k] - output[k]) / (double) (numClasses - 1.0));
@@ -265,8 +284,8 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 		return vectors;
 	}
 
-	private Map<Instance, Confidence> sampling(Instances sampled, Instances instances, Map<InstancePair, Double> similarities, Set<Instance> labeled, Set<Instance> unlabeled, Random rand) throws Exception {
-		Map<Instance, Confidence> mapConfidence = new HashMap<>();
+	private Map<Instance, Confidence> sampling(Instances sampled, Instances instances, Set<Instance> labeled, Set<Instance> unlabeled, Random rand) throws Exception {
+		Map<Instance, Confidence> mapConfidence = new LinkedHashMap<>();
 		int numClasses = instances.numClasses();
 		double[][] Y = makeY(numClasses);
 		double sumWeights = 0;
@@ -282,7 +301,7 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 
 		sumWeights = 0;
 		for (Instance instance : unlabeled) {
-			Confidence conf = confidence(instance, similarities, labeled, unlabeled);
+			Confidence conf = confidence(instance, labeled, unlabeled);
 			mapConfidence.put(instance, conf);
 			instance.setClassValue(conf.pseudolabel);
 			sumWeights += conf.probability;
@@ -324,36 +343,53 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 		}
 	}
 
-	private void splitInstances(Instances instances, Set<Instance> labeled, Set<Instance> unlabeled) {
+	private Instances splitInstances(Instances instances, Set<Instance> labeled, Set<Instance> unlabeled) {
 		assert instances.numInstances() > 0;
-		this.labeled = new Instances(instances, 0);
+		Instances labeledData = new Instances(instances, 0);
 		for (Instance instance : instances) {
 			if (instance.classIsMissing()) {
 				unlabeled.add(instance);
 			} else {
 				labeled.add(instance);
-				this.labeled.add(instance);
+				labeledData.add(instance);
 			}
 		}
 		assert labeled.size() > 0;
+		return labeledData;
 	}
 
-	private Map<InstancePair, Double> computeSimilarity(Instances instances) {
-		int numInstances = instances.numInstances();
-		Map<InstancePair, Double> similarities = new HashMap<>();
-		for (int i = 0; i < numInstances; i++) {
-			Instance instance = instances.get(i);
-			for (int j = i + 1; j < numInstances; j++) {
-				Instance other = instances.get(j);
-				// cosine similarity, symmetric and [0,1]
-				double sim = euclidianDistance(instance.toDoubleArray(), other.toDoubleArray());
-				similarities.put(new InstancePair(instance, other), sim);
-				similarities.put(new InstancePair(other, instance), sim);
-			}
-			similarities.put(new InstancePair(instance, instance), 0.0);
+	/**
+	 * Prepares the similarities of the training instances, derived on demand from
+	 * their distances. The distances set with setDistanceMatrix are used if they
+	 * were computed from the same instances.
+	 *
+	 * @param instances the training instances
+	 */
+	private void computeSimilarity(Instances instances) {
+		DistanceMatrix matrix = distances;
+		if (matrix == null || !matrix.matches(instances)) {
+			matrix = new DistanceMatrix(instances);
 		}
-		radialBasisFunction(similarities);
-		return similarities;
+		delta = matrix.percentile(deltaPercentile);
+		assert delta > 0;
+		trainingDistances = matrix;
+		indices = new IdentityHashMap<>(instances.numInstances());
+		for (int i = 0; i < instances.numInstances(); i++) {
+			indices.put(instances.get(i), i);
+		}
+	}
+
+	private double similarity(Instance a, Instance b) {
+		return radialBasisFunction(trainingDistances.distance(indices.get(a), indices.get(b)));
+	}
+
+	/**
+	 * Releases the distances of the training instances, O(n^2) memory.
+	 */
+	private void releaseSimilarity() {
+		distances = null;
+		trainingDistances = null;
+		indices = null;
 	}
 
 	public static double euclidianDistance(double[] a, double[] b) {
@@ -364,22 +400,8 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 		return Math.sqrt(dist);
 	}
 
-	private void radialBasisFunction(Map<InstancePair, Double> similarities) {
-		delta = percentile(deltaPercentile, similarities);
-		assert delta > 0;
-		for (Entry<InstancePair, Double> entry : similarities.entrySet()) {
-			double sim = entry.getValue();
-			entry.setValue(Math.exp(-Math.pow(sim, 2) / Math.pow(delta, 2)));
-		}
-	}
-
-	private double percentile(double p, Map<InstancePair, Double> similarities) {
-		List<Double> values = new ArrayList<>(similarities.size());
-		for (Double d : similarities.values()) {
-			values.add(d);
-		}
-		Collections.sort(values);
-		return values.get((int) (p * values.size()));
+	private double radialBasisFunction(double distance) {
+		return Math.exp(-Math.pow(distance, 2) / Math.pow(delta, 2));
 	}
 
 	private double dotProduct(double[] a, double[] b) {
@@ -460,8 +482,11 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 		measures.add("Constant C2");
 		measures.add("Constant C3");
 		measures.add("delta");
+		measures.add("Elapsed Time");
+		measures.add("Time Budget Exhausted");
 		for (int i = 0; i < classifiers.size(); i++) {
 			measures.add("alpha:" + i + "");
+			measures.add("time:" + i + "");
 		}
 		return Collections.enumeration(measures);
 	}
@@ -487,7 +512,14 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 			return constant3;
 		case "delta":
 			return delta;
+		case "Elapsed Time":
+			return elapsedTime;
+		case "Time Budget Exhausted":
+			return budgetExhausted ? 1 : 0;
 		default:
+			if (additionalMeasureName.startsWith("time:")) {
+				return roundTimes.get(Integer.parseInt(additionalMeasureName.substring(5)));
+			}
 			int index = Integer.parseInt(additionalMeasureName.substring(6, additionalMeasureName.length()));
 			return classifiers.get(index).weight;
 		}
@@ -510,6 +542,7 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 		output += "Constant C3(unlabeled): " + constant3 + "\n";
 		output += "Sampling Percent: " + percentSampling + "\n";
 		output += "Delta Percentile: " + deltaPercentile + "\n";
+		output += "Time Budget: " + timeBudget + "\n";
 		output += "Measures:\n\n";
 		Enumeration<String> en = enumerateMeasures();
 		while (en.hasMoreElements()) {
@@ -519,6 +552,74 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 		return output;
 	}
 
+	/**
+	 * Sets precomputed distances of the training instances, shared for instance
+	 * by the runs of a parameter sweep on the same data.
+	 *
+	 * @param distances the distances, indexed in the order of the training instances
+	 */
+	public void setDistanceMatrix(DistanceMatrix distances) {
+		this.distances = distances;
+	}
+
+	public DistanceMatrix getDistanceMatrix() {
+		return distances;
+	}
+
+	/**
+	 * Returns the header of the training data, without any instance.
+	 *
+	 * @return the training header, or null if no model was built yet
+	 */
+	public Instances getHeader() {
+		return header;
+	}
+
+	/**
+	 * Writes the compact model: the fields holding the options and measures,
+	 * the training header (without instances) and the weighted base learners.
+	 * The training data is not kept, so the model size only depends on the ensemble.
+	 *
+	 * @param out the stream to write the model to
+	 * @throws IOException if the model could not be written
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		int size = classifiers == null ? -1 : classifiers.size();
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeDouble(classifiers.get(i).weight);
+		}
+		for (int i = 0; i < size; i++) {
+			out.writeObject(classifiers.get(i).classifier);
+		}
+	}
+
+	/**
+	 * Reads a model written by {@link #writeObject(ObjectOutputStream)}. The weights
+	 * are read as a block and the ensemble is rebuilt with its final capacity.
+	 *
+	 * @param in the stream to read the model from
+	 * @throws IOException if the model could not be read
+	 * @throws ClassNotFoundException if a base learner class is not available
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int size = in.readInt();
+		if (size < 0) {
+			classifiers = null;
+			return;
+		}
+		double[] weights = new double[size];
+		for (int i = 0; i < size; i++) {
+			weights[i] = in.readDouble();
+		}
+		classifiers = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			classifiers.add(new WeightedClassifier((Classifier) in.readObject(), weights[i]));
+		}
+	}
+
 	/**
 	 * Returns the revision string.
 	 * 
@@ -542,6 +643,11 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 			}
 		}
 
+		public WeightedClassifier(Classifier classifier, double weight) {
+			this.classifier = classifier;
+			this.weight = weight;
+		}
+
 		public void buildClassifier(Instances data) throws Exception {
 			classifier.buildClassifier(data);
 		}
@@ -585,53 +691,16 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 			return String.format("p=%s  prob=%.4f class=%d", Arrays.toString(p), probability, (int) pseudolabel);
 		}
 	}
-
-	private class InstancePair {
-		public Instance a;
-		public Instance b;
-
-		public InstancePair(Instance a, Instance b) {
-			this.a = a;
-			this.b = b;
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + getEnclosingInstance().hashCode();
-			result = prime * result + Objects.hash(a, b);
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) {
-				return true;
-			}
-			if (!(obj instanceof InstancePair)) {
-				return false;
-			}
-			InstancePair other = (InstancePair) obj;
-			if (!getEnclosingInstance().equals(other.getEnclosingInstance())) {
-				return false;
-			}
-			return Objects.equals(a, other.a) && Objects.equals(b, other.b);
-		}
-
-		private MultiSemiAdaBoost getEnclosingInstance() {
-			return MultiSemiAdaBoost.this;
-		}
-	}
 	
 
 	public Enumeration<Option> listOptions() {
-		Vector<Option> newVector = new Vector<Option>(5);
+		Vector<Option> newVector = new Vector<Option>(6);
 		newVector.addElement(new Option("\tThe weight importance between the labeled data.\n\t(-1 for 1/#labeled).", "L", 1, "-L <importante>"));
 		newVector.addElement(new Option("\tThe weight importance between the unlabeled data.\n\t(-1 for 1/#instances).", "U", 1, "-U <importante>"));
 		newVector.addElement(new Option("\tThe weight importance between the labeled and the unlabeled data.\n\t(-1 for 1/(2 * #unlabeled)).", "I", 1, "-I <importante>"));
 		newVector.addElement(new Option("\tThe percentage of unlabeled instances [0.0,1.0].\n\t(Default = 1.0)", "P", 1, "-P <percentage>"));
 		newVector.addElement(new Option("\tThe percentile of the scale parameter controlling the spread of the radial basis function [0.0,1.0].\n\t(Default = 1.0)", "D", 1, "-D <percentile>"));
+		newVector.addElement(new Option("\tThe time budget in seconds, boosting stops before a round is expected to exceed it.\n\t(Default = -1, no limit)", "B", 1, "-B <seconds>"));
 		newVector.addAll(Collections.list(super.listOptions()));
 		return newVector.elements();
 	}
@@ -669,6 +738,12 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 		} else {
 			deltaPercentile = 0.1;
 		}
+		String budgetString = Utils.getOption('B', options);
+		if (budgetString.length() > 0) {
+			timeBudget = Double.parseDouble(budgetString);
+		} else {
+			timeBudget = -1;
+		}
 		super.setOptions(options);
 		Utils.checkForRemainingOptions(options);
 	}
@@ -685,6 +760,8 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 		options.add(Double.toString(percentSampling));
 		options.add("-D");
 		options.add(Double.toString(deltaPercentile));
+		options.add("-B");
+		options.add(Double.toString(timeBudget));
 		Collections.addAll(options, super.getOptions());
 		return options.toArray(new String[0]);
 	}
@@ -748,4 +825,16 @@ public class MultiSemiAdaBoost extends RandomizableIteratedSingleClassifierEnhan
 	public double getDeltaPercentile() {
 		return deltaPercentile;
 	}
+
+	public String timeBudgetTipText() {
+		return "The time budget in seconds for the boosting rounds (-1 for no limit).";
+	}
+
+	public void setTimeBudget(double value) {
+		timeBudget = value;
+	}
+
+	public double getTimeBudget() {
+		return timeBudget;
+	}
 }
@@ -0,0 +1,234 @@
+package weka.classifiers.semi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.evaluation.Evaluation;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Randomizable;
+import weka.core.Utils;
+
+/**
+ * Runs repeated randomized train/test experiments of a semi-supervised
+ * classifier. Each repetition works on its own copy of the dataset and on its
+ * own random generator (seeded with the repetition number), so repetitions are
+ * independent, reproducible and can run concurrently.
+ */
+public class RepeatedExperiment {
+
+	protected final Classifier classifier;
+	protected final Instances dataset;
+	protected final double labeledFraction;
+	protected final int numRepetitions;
+
+	protected double testFraction = 0.5;
+	protected int numThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Creates an experiment.
+	 *
+	 * @param classifier the classifier to evaluate, copied for every repetition
+	 * @param dataset the dataset, with the class index set
+	 * @param labeledFraction the fraction of each class kept labeled in the training set (0,1]
+	 * @param numRepetitions the number of randomized repetitions
+	 */
+	public RepeatedExperiment(Classifier classifier, Instances dataset, double labeledFraction, int numRepetitions) {
+		this.classifier = classifier;
+		this.dataset = dataset;
+		this.labeledFraction = labeledFraction;
+		this.numRepetitions = numRepetitions;
+	}
+
+	public void setTestFraction(double value) {
+		testFraction = value;
+	}
+
+	public double getTestFraction() {
+		return testFraction;
+	}
+
+	public void setNumThreads(int value) {
+		numThreads = Math.max(1, value);
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * Runs all repetitions and aggregates the results.
+	 *
+	 * @return the results of the repetitions
+	 * @throws Exception if a repetition failed
+	 */
+	public Result run() throws Exception {
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, numRepetitions));
+		try {
+			List<Future<Run>> futures = new ArrayList<>(numRepetitions);
+			for (int i = 0; i < numRepetitions; i++) {
+				final int seed = i;
+				futures.add(executor.submit(() -> runRepetition(seed)));
+			}
+			List<Run> runs = new ArrayList<>(numRepetitions);
+			for (Future<Run> future : futures) {
+				runs.add(get(future));
+			}
+			return new Result(runs, (System.nanoTime() - start) / 1e9);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static Run get(Future<Run> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Runs a single repetition on an isolated copy of the dataset.
+	 *
+	 * @param seed the seed of the repetition
+	 * @return the result of the repetition
+	 * @throws Exception if the classifier could not be built or evaluated
+	 */
+	protected Run runRepetition(int seed) throws Exception {
+		Random rand = new Random(seed);
+		Instances data = new Instances(dataset);
+		data.randomize(rand);
+
+		int numTest = (int) (data.numInstances() * testFraction);
+		Instances test = new Instances(data, 0, numTest);
+		Instances train = new Instances(data, numTest, data.numInstances() - numTest);
+		hideLabels(train);
+
+		Classifier copy = AbstractClassifier.makeCopy(classifier);
+		if (copy instanceof Randomizable) {
+			((Randomizable) copy).setSeed(seed);
+		}
+		long start = System.nanoTime();
+		copy.buildClassifier(new Instances(train)); // semi-supervised classifiers label the unlabeled data
+		double buildTime = (System.nanoTime() - start) / 1e9;
+
+		start = System.nanoTime();
+		Evaluation eval = new Evaluation(train);
+		eval.evaluateModel(copy, test);
+		double testTime = (System.nanoTime() - start) / 1e9;
+		return new Run(seed, eval.pctCorrect(), buildTime, testTime);
+	}
+
+	/**
+	 * Keeps the labels of the first labeledFraction instances of each class and
+	 * removes the labels of the others (stratified, at least one per class).
+	 * Instances without a class value stay unlabeled.
+	 *
+	 * @param train the training set, already randomized
+	 */
+	protected void hideLabels(Instances train) {
+		int[] counts = new int[train.numClasses()];
+		for (Instance instance : train) {
+			if (!instance.classIsMissing()) {
+				counts[(int) instance.classValue()] += 1;
+			}
+		}
+		int[] limits = new int[counts.length];
+		for (int i = 0; i < counts.length; i++) {
+			limits[i] = (int) Math.ceil(labeledFraction * counts[i]);
+		}
+		for (Instance instance : train) {
+			if (instance.classIsMissing()) {
+				continue;
+			}
+			int y = (int) instance.classValue();
+			if (limits[y] > 0) {
+				limits[y] -= 1;
+			} else {
+				instance.setClassMissing();
+			}
+		}
+	}
+
+	/**
+	 * The result of a single repetition.
+	 */
+	public static class Run {
+		public final int seed;
+		public final double pctCorrect;
+		public final double buildTime;
+		public final double testTime;
+
+		public Run(int seed, double pctCorrect, double buildTime, double testTime) {
+			this.seed = seed;
+			this.pctCorrect = pctCorrect;
+			this.buildTime = buildTime;
+			this.testTime = testTime;
+		}
+
+		public String toString() {
+			return String.format("%d\t%.4f\t%.4f\t%.4f", seed, pctCorrect, buildTime, testTime);
+		}
+	}
+
+	/**
+	 * The aggregated results of all repetitions.
+	 */
+	public static class Result {
+		public final List<Run> runs;
+		public final double wallTime;
+
+		public Result(List<Run> runs, double wallTime) {
+			this.runs = runs;
+			this.wallTime = wallTime;
+		}
+
+		private double[] values(int field) {
+			double[] values = new double[runs.size()];
+			for (int i = 0; i < values.length; i++) {
+				Run run = runs.get(i);
+				values[i] = field == 0 ? run.pctCorrect : field == 1 ? run.buildTime : run.testTime;
+			}
+			return values;
+		}
+
+		public double meanPctCorrect() {
+			return Utils.mean(values(0));
+		}
+
+		public double stdDevPctCorrect() {
+			return runs.size() > 1 ? Math.sqrt(Utils.variance(values(0))) : 0;
+		}
+
+		public double meanBuildTime() {
+			return Utils.mean(values(1));
+		}
+
+		public double meanTestTime() {
+			return Utils.mean(values(2));
+		}
+
+		public String toString() {
+			StringBuilder output = new StringBuilder();
+			output.append("seed\taccuracy\tbuild(s)\ttest(s)\n");
+			for (Run run : runs) {
+				output.append(run).append("\n");
+			}
+			output.append(String.format("AVG %.4f STD %.4f\n", meanPctCorrect(), stdDevPctCorrect()));
+			output.append(String.format("Mean build time: %.4fs, mean test time: %.4fs, wall time: %.4fs\n", meanBuildTime(), meanTestTime(), wallTime));
+			return output.toString();
+		}
+	}
+}
@@ -1,17 +1,19 @@
 package weka.classifiers.semi;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
@@ -20,7 +22,6 @@ import java.util.Vector;
 import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
 import weka.classifiers.RandomizableIteratedSingleClassifierEnhancer;
-import weka.classifiers.evaluation.Evaluation;
 import weka.classifiers.trees.J48;
 import weka.core.AdditionalMeasureProducer;
 import weka.core.Capabilities;
@@ -37,7 +38,7 @@ import weka.core.TechnicalInformationHandler;
 import weka.core.Utils;
 import weka.core.converters.ArffLoader;
 
-public class SemiBoost extends RandomizableIteratedSingleClassifierEnhancer implements OptionHandler, TechnicalInformationHandler, AdditionalMeasureProducer {
+public class SemiBoost extends RandomizableIteratedSingleClassifierEnhancer implements OptionHandler, TechnicalInformationHandler, AdditionalMeasureProducer, DistanceMatrixHandler {
 
 	public static void main(String[] argv) throws Exception {
 		ArffLoader loader = new ArffLoader();
@@ -45,55 +46,25 @@ public class SemiBoost extends RandomizableIteratedSingleClassifierEnhancer impl
 		Instances instances = loader.getDataSet();
 		instances.setClassIndex(instances.numAttributes() - 1);
 
-		double acc = 0;
-		int n = 100;
-		for (int i = 0; i < n; i++) {
-
-			Random rand = new Random(i);
-			instances.randomize(rand);
-
-			Instances test = new Instances(instances, 0, instances.numInstances() / 2);
-			Instances train = new Instances(instances, instances.numInstances() / 2, instances.numInstances() - instances.numInstances() / 2);
-
-			int count0 = 0;
-			int count1 = 0;
-			int limit = (int) (train.numInstances() * 0.05);
-			for (Instance instance : train) {
-				if (instance.classValue() == 0) {
-					if (count0 < limit) {
-						count0 += 1;
-					} else {
-						instance.setClassMissing();
-					}
-					if (count1 < limit) {
-						count1 += 1;
-					} else {
-						instance.setClassMissing();
-					}
-				}
-			}
-
-			SemiBoost classifier = new SemiBoost();
-			classifier.setSeed(i);
-			classifier.buildClassifier(new Instances(train));
-			Evaluation eval = new Evaluation(new Instances(train));
-			eval.evaluateModel(classifier, test);
-			acc += eval.pctCorrect();
-			System.out.println(eval.pctCorrect());
-		}
-		System.out.println("AVG " + acc / (double) n);
-
+		RepeatedExperiment experiment = new RepeatedExperiment(new SemiBoost(), instances, 0.05, 100);
+		System.out.println(experiment.run());
 	}
 
-	private static final long serialVersionUID = 1;
+	private static final long serialVersionUID = 2; // 2: weights and members written by writeObject
 
 	protected double constant = -1; // set default #l/#u as -1
 	protected double percentSampling = 0.1;
 	protected double deltaPercentile = 0.1; // 10 a 20
+	protected int numPartners = 0; // 0 for all unlabeled instances
+	protected double percentScoring = 1.0;
 
-	private List<WeightedClassifier> classifiers;
+	private transient List<WeightedClassifier> classifiers;
 	private double delta;
-	private Instances labeled;
+	private Instances header;
+	private transient DistanceMatrix distances;
+	private transient DistanceMatrix trainingDistances; // while training
+	private transient Map<Instance, Integer> indices; // of the training instances in trainingDistances
+	private transient FlatTreeEnsemble flatTrees;
 
 	public SemiBoost() {
 		setClassifier(new J48());
@@ -138,34 +109,40 @@ public class SemiBoost extends RandomizableIteratedSingleClassifierEnhancer impl
 			throw new Exception("A base classifier has not been specified!");
 		}
 
-		Set<Instance> labeled = new HashSet<>();
-		Set<Instance> unlabeled = new HashSet<>();
-		splitInstances(instances, labeled, unlabeled);
+		Set<Instance> labeled = new LinkedHashSet<>(); // instances hash by identity, the order must not depend on it
+		List<Instance> unlabeled = new ArrayList<>();
+		Instances labeledData = splitInstances(instances, labeled, unlabeled);
+		header = new Instances(instances, 0);
 		if (constant == -1)
 			constant = unlabeled.size() > 0 ? labeled.size() / (double) unlabeled.size() : 1.0;
 
 		classifiers = new ArrayList<>(getNumIterations());
-		Map<InstancePair, Double> similarities = computeSimilarity(instances);
-
-		Random rand = new Random(getSeed());
-		do {
-			Instances sampled = new Instances(this.labeled);
-			Map<Instance, Confidence> confidence = sampling(sampled, instances, similarities, labeled, unlabeled, rand);
-			WeightedClassifier classifier = new WeightedClassifier();
-			classifier.buildClassifier(sampled);
-			if (computeAlpha(classifier, unlabeled, confidence) <= 0) {
-				break;
-			}
-			classifiers.add(classifier);
-		} while (classifiers.size() < getNumIterations());
+		flatTrees = new FlatTreeEnsemble(header);
+		computeSimilarity(instances);
+
+		try {
+			Random rand = new Random(getSeed());
+			do {
+				Instances sampled = new Instances(labeledData);
+				Map<Instance, Confidence> confidence = sampling(sampled, instances, labeled, unlabeled, rand);
+				WeightedClassifier classifier = new WeightedClassifier();
+				classifier.buildClassifier(sampled);
+				if (computeAlpha(classifier, confidence) <= 0) {
+					break;
+				}
+				classifiers.add(classifier);
+				flatTrees.add(classifier.classifier, classifier.weight);
+			} while (classifiers.size() < getNumIterations());
+		} finally {
+			releaseSimilarity();
+		}
 	}
 
-	private double computeAlpha(WeightedClassifier classifier, Set<Instance> unlabeled, Map<Instance, Confidence> mapConfidence) throws Exception {
+	private double computeAlpha(WeightedClassifier classifier, Map<Instance, Confidence> mapConfidence) throws Exception {
 		double num = 0;
 		double dem = 0;
-		for (Instance instance : unlabeled) {
-			Confidence conf = mapConfidence.get(instance);
-			double output = classifier.classifyInstance(instance) == 0.0 ? -1 : 1;
+		for (Confidence conf : mapConfidence.values()) {
+			double output = classifier.classifyInstance(conf.instance) == 0.0 ? -1 : 1;
 			if (output == 1) {
 				num += conf.p;
 				dem += conf.q;
@@ -180,21 +157,35 @@ public class SemiBoost extends RandomizableIteratedSingleClassifierEnhancer impl
 		return classifier.weight;
 	}
 
-	private Confidence confidence(Instance instance, Map<InstancePair, Double> similarities, Set<Instance> labeled, Set<Instance> unlabeled) throws Exception {
+	private Confidence confidence(Instance instance, Set<Instance> labeled, List<Instance> unlabeled, Map<Instance, Double> outputs,
+			Random rand) throws Exception {
 		double p = 0;
 		double q = 0;
-		double output = combinedClassification(instance);
-		for (Instance inst : unlabeled) {
-			double sim = similarities.get(new InstancePair(instance, inst));
-			double joutput = combinedClassification(inst);
-			p += sim * Math.exp(joutput - output);
-			q += sim * Math.exp(output - joutput);
+		double output = outputs.get(instance);
+		int size = unlabeled.size();
+		if (numPartners > 0 && numPartners < size) {
+			// unbiased estimate: m partners sampled uniformly, each standing for size/m instances
+			double importance = size / (double) numPartners;
+			for (int i = 0; i < numPartners; i++) {
+				Instance inst = unlabeled.get(rand.nextInt(size));
+				double sim = importance * similarity(instance, inst);
+				double joutput = outputs.get(inst);
+				p += sim * Math.exp(joutput - output);
+				q += sim * Math.exp(output - joutput);
+			}
+		} else {
+			for (Instance inst : unlabeled) {
+				double sim = similarity(instance, inst);
+				double joutput = outputs.get(inst);
+				p += sim * Math.exp(joutput - output);
+				q += sim * Math.exp(output - joutput);
+			}
 		}
 		p = (constant * p) / 2.0;
 		q = (constant * q) / 2.0;
 
 		for (Instance inst : labeled) {
-			double sim = similarities.get(new InstancePair(instance, inst));
+			double sim = similarity(instance, inst);
 			if (inst.classValue() == 1) {
 				p += sim * Math.exp(-2 * output);
 			} else {
@@ -204,10 +195,14 @@ public class SemiBoost extends RandomizableIteratedSingleClassifierEnhancer impl
 		return new Confidence(instance, p, q);
 	}
 
-	private Map<Instance, Confidence> sampling(Instances sampled, Instances instances, Map<InstancePair, Double> similarities, Set<Instance> labeled, Set<Instance> unlabeled, Random rand) throws Exception {
-		Map<Instance, Confidence> mapConfidence = new HashMap<>();
+	private Map<Instance, Confidence> sampling(Instances sampled, Instances instances, Set<Instance> labeled, List<Instance> unlabeled, Random rand) throws Exception {
+		Map<Instance, Double> outputs = new LinkedHashMap<>();
 		for (Instance instance : unlabeled) {
-			Confidence conf = confidence(instance, similarities, labeled, unlabeled);
+			outputs.put(instance, combinedClassification(instance));
+		}
+		Map<Instance, Confidence> mapConfidence = new LinkedHashMap<>(); // sampled in scoring order
+		for (Instance instance : scoredInstances(unlabeled, rand)) {
+			Confidence conf = confidence(instance, labeled, unlabeled, outputs, rand);
 			mapConfidence.put(instance, conf);
 			instance.setClassValue(conf.sign);
 		}
@@ -216,6 +211,27 @@ public class SemiBoost extends RandomizableIteratedSingleClassifierEnhancer impl
 		return mapConfidence;
 	}
 
+	/**
+	 * Returns the unlabeled instances whose confidence is computed in this round,
+	 * a random subset of percentScoring of the pool (without replacement).
+	 *
+	 * @param unlabeled the unlabeled instances
+	 * @param rand the random number generator
+	 * @return the instances to score
+	 */
+	private List<Instance> scoredInstances(List<Instance> unlabeled, Random rand) {
+		int size = unlabeled.size();
+		int numScored = (int) Math.ceil(percentScoring * size);
+		if (percentScoring >= 1.0 || numScored >= size) {
+			return unlabeled;
+		}
+		List<Instance> scored = new ArrayList<>(unlabeled);
+		for (int i = 0; i < numScored; i++) {
+			Collections.swap(scored, i, i + rand.nextInt(size - i));
+		}
+		return scored.subList(0, numScored);
+	}
+
 	public void stochasticUniversalSampling(Instances output, Collection<Confidence> confidences, int size, Random rand) {
 		List<Instance> instances = new ArrayList<>(confidences.size());
 		List<Double> culmulative = new ArrayList<>(confidences.size());
@@ -242,36 +258,53 @@ public class SemiBoost extends RandomizableIteratedSingleClassifierEnhancer impl
 		}
 	}
 
-	private void splitInstances(Instances instances, Set<Instance> labeled, Set<Instance> unlabeled) {
+	private Instances splitInstances(Instances instances, Set<Instance> labeled, List<Instance> unlabeled) {
 		assert instances.numInstances() > 0;
-		this.labeled = new Instances(instances, 0);
+		Instances labeledData = new Instances(instances, 0);
 		for (Instance instance : instances) {
 			if (instance.classIsMissing()) {
 				unlabeled.add(instance);
 			} else {
 				labeled.add(instance);
-				this.labeled.add(instance);
+				labeledData.add(instance);
 			}
 		}
 		assert labeled.size() > 0;
+		return labeledData;
 	}
 
-	private Map<InstancePair, Double> computeSimilarity(Instances instances) {
-		int numInstances = instances.numInstances();
-		Map<InstancePair, Double> similarities = new HashMap<>();
-		for (int i = 0; i < numInstances; i++) {
-			Instance instance = instances.get(i);
-			for (int j = i + 1; j < numInstances; j++) {
-				Instance other = instances.get(j);
-				// cosine similarity, symmetric and [0,1]
-				double sim = euclidianDistance(instance.toDoubleArray(), other.toDoubleArray());
-				similarities.put(new InstancePair(instance, other), sim);
-				similarities.put(new InstancePair(other, instance), sim);
-			}
-			similarities.put(new InstancePair(instance, instance), 0.0);
+	/**
+	 * Prepares the similarities of the training instances, derived on demand from
+	 * their distances. The distances set with setDistanceMatrix are used if they
+	 * were computed from the same instances.
+	 *
+	 * @param instances the training instances
+	 */
+	private void computeSimilarity(Instances instances) {
+		DistanceMatrix matrix = distances;
+		if (matrix == null || !matrix.matches(instances)) {
+			matrix = new DistanceMatrix(instances);
+		}
+		delta = matrix.percentile(deltaPercentile);
+		assert delta > 0;
+		trainingDistances = matrix;
+		indices = new IdentityHashMap<>(instances.numInstances());
+		for (int i = 0; i < instances.numInstances(); i++) {
+			indices.put(instances.get(i), i);
 		}
-		radialBasisFunction(similarities);
-		return similarities;
+	}
+
+	private double similarity(Instance a, Instance b) {
+		return radialBasisFunction(trainingDistances.distance(indices.get(a), indices.get(b)));
+	}
+
+	/**
+	 * Releases the distances of the training instances, O(n^2) memory.
+	 */
+	private void releaseSimilarity() {
+		distances = null;
+		trainingDistances = null;
+		indices = null;
 	}
 
 	public static double euclidianDistance(double[] a, double[] b) {
@@ -282,25 +315,25 @@ public class SemiBoost extends RandomizableIteratedSingleClassifierEnhancer impl
 		return Math.sqrt(dist);
 	}
 
-	private void radialBasisFunction(Map<InstancePair, Double> similarities) {
-		delta = percentile(deltaPercentile, similarities);
-		assert delta > 0;
-		for (Entry<InstancePair, Double> entry : similarities.entrySet()) {
-			double sim = entry.getValue();
-			entry.setValue(Math.exp(-Math.pow(sim, 2) / Math.pow(delta, 2)));
-		}
+	private double radialBasisFunction(double distance) {
+		return Math.exp(-Math.pow(distance, 2) / Math.pow(delta, 2));
 	}
 
-	private double percentile(double p, Map<InstancePair, Double> similarities) {
-		List<Double> values = new ArrayList<>(similarities.size());
-		for (Double d : similarities.values()) {
-			values.add(d);
-		}
-		Collections.sort(values);
-		return values.get((int) (p * values.size()));
+	/**
+	 * Returns the weighted vote of the ensemble, its sign is the predicted class.
+	 *
+	 * @param instance the instance to be classified
+	 * @return the margin of the instance
+	 * @throws Exception if an error occurred during the prediction
+	 */
+	public double margin(Instance instance) throws Exception {
+		return combinedClassification(instance);
 	}
 
 	private double combinedClassification(Instance instance) throws Exception {
+		if (flatTrees != null && flatTrees.isValid() && !instance.hasMissingValue()) {
+			return flatTrees.margin(instance.toDoubleArray());
+		}
 		double h = 0;
 		for (WeightedClassifier classifier : classifiers) {
 			int output = classifier.classifyInstance(instance) == 0.0 ? -1 : 1;
@@ -410,6 +443,8 @@ public class SemiBoost extends RandomizableIteratedSingleClassifierEnhancer impl
 		output += "Constant: " + constant + "\n";
 		output += "Sampling Percent: " + percentSampling + "\n";
 		output += "Delta Percentile: " + deltaPercentile + "\n";
+		output += "Num Partners: " + numPartners + "\n";
+		output += "Scoring Percent: " + percentScoring + "\n";
 		output += "Measures:\n\n";
 		Enumeration<String> en = enumerateMeasures();
 		while (en.hasMoreElements()) {
@@ -419,6 +454,78 @@ public class SemiBoost extends RandomizableIteratedSingleClassifierEnhancer impl
 		return output;
 	}
 
+	/**
+	 * Sets precomputed distances of the training instances, shared for instance
+	 * by the runs of a parameter sweep on the same data.
+	 *
+	 * @param distances the distances, indexed in the order of the training instances
+	 */
+	public void setDistanceMatrix(DistanceMatrix distances) {
+		this.distances = distances;
+	}
+
+	public DistanceMatrix getDistanceMatrix() {
+		return distances;
+	}
+
+	/**
+	 * Returns the header of the training data, without any instance.
+	 *
+	 * @return the training header, or null if no model was built yet
+	 */
+	public Instances getHeader() {
+		return header;
+	}
+
+	/**
+	 * Writes the compact model: the fields holding the options and measures,
+	 * the training header (without instances) and the weighted base learners.
+	 * The training data is not kept, so the model size only depends on the ensemble.
+	 *
+	 * @param out the stream to write the model to
+	 * @throws IOException if the model could not be written
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		int size = classifiers == null ? -1 : classifiers.size();
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeDouble(classifiers.get(i).weight);
+		}
+		for (int i = 0; i < size; i++) {
+			out.writeObject(classifiers.get(i).classifier);
+		}
+	}
+
+	/**
+	 * Reads a model written by {@link #writeObject(ObjectOutputStream)}. The weights
+	 * are read as a block and the ensemble is rebuilt with its final capacity.
+	 *
+	 * @param in the stream to read the model from
+	 * @throws IOException if the model could not be read
+	 * @throws ClassNotFoundException if a base learner class is not available
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int size = in.readInt();
+		if (size < 0) {
+			classifiers = null;
+			return;
+		}
+		double[] weights = new double[size];
+		for (int i = 0; i < size; i++) {
+			weights[i] = in.readDouble();
+		}
+		classifiers = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			classifiers.add(new WeightedClassifier((Classifier) in.readObject(), weights[i]));
+		}
+		flatTrees = new FlatTreeEnsemble(header);
+		for (WeightedClassifier classifier : classifiers) {
+			flatTrees.add(classifier.classifier, classifier.weight);
+		}
+	}
+
 	/**
 	 * Returns the revision string.
 	 * 
@@ -442,6 +549,11 @@ public class SemiBoost extends RandomizableIteratedSingleClassifierEnhancer impl
 			}
 		}
 
+		public WeightedClassifier(Classifier classifier, double weight) {
+			this.classifier = classifier;
+			this.weight = weight;
+		}
+
 		public void buildClassifier(Instances data) throws Exception {
 			classifier.buildClassifier(data);
 		}
@@ -471,49 +583,13 @@ public class SemiBoost extends RandomizableIteratedSingleClassifierEnhancer impl
 		}
 	}
 
-	private class InstancePair {
-		public Instance a;
-		public Instance b;
-
-		public InstancePair(Instance a, Instance b) {
-			this.a = a;
-			this.b = b;
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + getEnclosingInstance().hashCode();
-			result = prime * result + Objects.hash(a, b);
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) {
-				return true;
-			}
-			if (!(obj instanceof InstancePair)) {
-				return false;
-			}
-			InstancePair other = (InstancePair) obj;
-			if (!getEnclosingInstance().equals(other.getEnclosingInstance())) {
-				return false;
-			}
-			return Objects.equals(a, other.a) && Objects.equals(b, other.b);
-		}
-
-		private SemiBoost getEnclosingInstance() {
-			return SemiBoost.this;
-		}
-	}
-
 	public Enumeration<Option> listOptions() {
-		Vector<Option> newVector = new Vector<Option>(3);
+		Vector<Option> newVector = new Vector<Option>(5);
 		newVector.addElement(new Option("\tThe weight importance between the labeled and the unlabeled data [0.0,1.0].\n\t(-1 for #labeled/#unlabeled).", "T", 1, "-T <importante>"));
 		newVector.addElement(new Option("\tThe percentage of unlabeled instances [0.0,1.0].\n\t(Default = 1.0)", "P", 1, "-P <percentage>"));
 		newVector.addElement(new Option("\tThe percentile of the scale parameter controlling the spread of the radial basis function [0.0,1.0].\n\t(Default = 1.0)", "D", 1, "-D <percentile>"));
+		newVector.addElement(new Option("\tThe number of unlabeled partners sampled to estimate the confidence of an instance.\n\t(Default = 0, all unlabeled instances)", "M", 1, "-M <num>"));
+		newVector.addElement(new Option("\tThe percentage of unlabeled instances scored in each round [0.0,1.0].\n\t(Default = 1.0)", "F", 1, "-F <percentage>"));
 		newVector.addAll(Collections.list(super.listOptions()));
 		return newVector.elements();
 	}
@@ -539,6 +615,20 @@ public class SemiBoost extends RandomizableIteratedSingleClassifierEnhancer impl
 		} else {
 			deltaPercentile = 0.1;
 		}
+		String partnersString = Utils.getOption('M', options);
+		if (partnersString.length() > 0) {
+			numPartners = Integer.parseInt(partnersString);
+		} else {
+			numPartners = 0;
+		}
+		String scoringString = Utils.getOption('F', options);
+		if (scoringString.length() > 0) {
+			percentScoring = Double.parseDouble(scoringString);
+			if (percentScoring <= 0)
+				percentScoring = 1.0;
+		} else {
+			percentScoring = 1.0;
+		}
 		super.setOptions(options);
 		Utils.checkForRemainingOptions(options);
 	}
@@ -551,6 +641,10 @@ public class SemiBoost extends RandomizableIteratedSingleClassifierEnhancer impl
 		options.add(Double.toString(percentSampling));
 		options.add("-D");
 		options.add(Double.toString(deltaPercentile));
+		options.add("-M");
+		options.add(Integer.toString(numPartners));
+		options.add("-F");
+		options.add(Double.toString(percentScoring));
 		Collections.addAll(options, super.getOptions());
 		return options.toArray(new String[0]);
 	}
@@ -590,4 +684,28 @@ public class SemiBoost extends RandomizableIteratedSingleClassifierEnhancer impl
 	public double getDeltaPercentile() {
 		return deltaPercentile;
 	}
+
+	public String numPartnersTipText() {
+		return "The number of unlabeled partners sampled for each confidence (0 for all).";
+	}
+
+	public void setNumPartners(int value) {
+		numPartners = value;
+	}
+
+	public int getNumPartners() {
+		return numPartners;
+	}
+
+	public String percentScoringTipText() {
+		return "The percentage of unlabeled instances scored in each round (p>0).";
+	}
+
+	public void setPercentScoring(double value) {
+		percentScoring = value;
+	}
+
+	public double getPercentScoring() {
+		return percentScoring;
+	}
 }